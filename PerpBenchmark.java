@@ -0,0 +1,1393 @@
+import perp.BufferedSink;
+import perp.Errors;
+import perp.MemorySink;
+import perp.OutputSink;
+import perp.PerpLimitException;
+import perp.SymbolTable;
+import perp.UnknownVariableException;
+import perp.WorkloadGenerator;
+import perp.machine.Bytecode;
+import perp.machine.BytecodeMachine;
+import perp.machine.InstructionReader;
+import perp.machine.RegisterMachine;
+import perp.machine.RegisterProgram;
+import perp.machine.SuperinstructionSelector;
+import perp.machine.stu.Machine;
+import perp.tree.ActionNode;
+import perp.tree.ExpressionNode;
+import perp.tree.PerpNode;
+import perp.tree.stu.ActionSequence;
+import perp.tree.stu.Assignment;
+import perp.tree.stu.BinaryOperation;
+import perp.tree.stu.ClosureCompiler;
+import perp.tree.stu.Constant;
+import perp.tree.stu.JitCompiler;
+import perp.tree.stu.ParseTree;
+import perp.tree.stu.Print;
+import perp.tree.stu.Simplifier;
+import perp.tree.stu.StatementReader;
+import perp.tree.stu.UnaryOperation;
+import perp.tree.stu.Variable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Timing runs for the perp language system. Each benchmark prints one
+ * line per problem size so that scaling can be read off directly.
+ *
+ * The "stages" benchmark is a quick smoke run of each step of the
+ * pipeline, from tokenizing the source text to running the compiled
+ * code, over every combination of program size and expression depth.
+ * Each measurement is a few untimed warmup runs followed by timed ones,
+ * reported as mean, standard deviation and minimum. Everything runs in
+ * one JVM, so the numbers are only a rough guide. The jmh subproject
+ * has the same stages as JMH benchmarks, which fork a JVM for each one
+ * and keep the compiler from optimizing the work away; use those for
+ * numbers to compare across versions of the code.
+ *
+ * @author James Heliotis
+ */
+public class PerpBenchmark {
+
+    /** token counts used by the scaling benchmarks */
+    private static final int[] SIZES = { 10_000, 100_000, 1_000_000 };
+
+    /** how many different variables the made-up programs use */
+    private static final int VARIABLES = 1000;
+
+    /** expression depth of the made-up programs, except in "stages" */
+    private static final int DEPTH = 3;
+
+    /**
+     * the least speedup of resolved over string-comparing evaluation;
+     * large trees are memory bound and time within about 20% of each
+     * other, while walking every tree with a heap stack gave 0.5x
+     */
+    private static final double EVALUATION_SPEEDUP = 0.75;
+
+    /** how many times each measurement is repeated; the best is kept */
+    private static final int REPEATS = 5;
+
+    /** program sizes, in tokens, for the stages benchmark; see -sizes */
+    private static int[] stageSizes = { 10_000, 100_000 };
+
+    /** expression depths for the stages benchmark; see -depths */
+    private static int[] stageDepths = { 2, 5, 8 };
+
+    /** untimed runs before each stage is measured; see -warmup */
+    private static int warmup = 5;
+
+    /** timed runs of each stage; see -iterations */
+    private static int iterations = 10;
+
+    /** where timed work leaves its result, so it cannot be optimized away */
+    private static volatile Object blackhole;
+
+    /** how many of the checks made along the way have failed */
+    private static int failures = 0;
+
+    /**
+     * Run benchmarks.
+     * @param args options, then the names of the benchmarks to run; all
+     *             if none given. Known names: parse, eval, engines,
+     *             chunks, registers, reuse, super, output, deep, codegen,
+     *             listing, symbols, stages.
+     *             The options, which apply to the stages benchmark, are
+     *             -sizes and -depths followed by comma-separated lists,
+     *             and -warmup and -iterations followed by counts.
+     *             The eval, chunks, reuse, deep and codegen benchmarks
+     *             also check their results; if any check fails, the run exits
+     *             with status {@link Errors#EXIT_STATUS} once every
+     *             benchmark is done.
+     */
+    public static void main( String... args ) {
+        int first = 0;
+        while ( first + 1 < args.length && args[ first ].startsWith( "-" ) ) {
+            String value = args[ first + 1 ];
+            switch ( args[ first ] ) {
+                case "-sizes": stageSizes = intList( value ); break;
+                case "-depths": stageDepths = intList( value ); break;
+                case "-warmup": warmup = Integer.parseInt( value ); break;
+                case "-iterations":
+                    iterations = Integer.parseInt( value );
+                    break;
+                default:
+                    System.err.println( "Usage: java PerpBenchmark " +
+                                        "[-sizes n,...] [-depths n,...] " +
+                                        "[-warmup n] [-iterations n] " +
+                                        "[benchmark...]" );
+                    System.exit( 1 );
+            }
+            first += 2;
+        }
+        List< String > which =
+                Arrays.asList( args ).subList( first, args.length );
+        if ( which.isEmpty() || which.contains( "parse" ) ) {
+            parseScaling();
+        }
+        if ( which.isEmpty() || which.contains( "eval" ) ) {
+            evaluation();
+        }
+        if ( which.isEmpty() || which.contains( "engines" ) ) {
+            engines();
+        }
+        if ( which.isEmpty() || which.contains( "chunks" ) ) {
+            jitChunks();
+        }
+        if ( which.isEmpty() || which.contains( "registers" ) ) {
+            registers();
+        }
+        if ( which.isEmpty() || which.contains( "reuse" ) ) {
+            reuse();
+        }
+        if ( which.isEmpty() || which.contains( "super" ) ) {
+            superinstructions();
+        }
+        if ( which.isEmpty() || which.contains( "output" ) ) {
+            output();
+        }
+        if ( which.isEmpty() || which.contains( "deep" ) ) {
+            deepExpressions();
+        }
+        if ( which.isEmpty() || which.contains( "codegen" ) ) {
+            codeGeneration();
+        }
+        if ( which.isEmpty() || which.contains( "listing" ) ) {
+            listing();
+        }
+        if ( which.isEmpty() || which.contains( "symbols" ) ) {
+            symbols();
+        }
+        if ( which.isEmpty() || which.contains( "stages" ) ) {
+            stages();
+        }
+        if ( failures > 0 ) {
+            System.err.println( failures + " checks failed" );
+            System.exit( Errors.EXIT_STATUS );
+        }
+    }
+
+    /**
+     * Count a check, saying on standard error what went wrong if it failed.
+     * @param ok whether the check passed
+     * @param what what was checked, and what came out
+     */
+    private static void check( boolean ok, String what ) {
+        if ( !ok ) {
+            ++failures;
+            System.err.println( "FAILED: " + what );
+        }
+    }
+
+    /**
+     * @param text comma-separated numbers
+     * @return the numbers
+     */
+    private static int[] intList( String text ) {
+        return Arrays.stream( text.split( "," ) )
+                     .mapToInt( Integer::parseInt ).toArray();
+    }
+
+    /**
+     * Time every stage of the pipeline separately, for each program size
+     * and expression depth, as a quick check of where the time goes.
+     * Output from the program runs is discarded. See the jmh subproject
+     * for measurements to rely on.
+     */
+    private static void stages() {
+        System.out.println( "Pipeline stages, " + warmup + " warmup and " +
+                            iterations + " measured runs, ms per run" );
+        System.out.printf( "%-10s %10s %6s %12s %10s %12s\n", "stage",
+                           "tokens", "depth", "mean", "sd", "min" );
+        for ( int size: stageSizes ) {
+            for ( int depth: stageDepths ) {
+                List< String > tokens = generated( size, depth );
+                String source = String.join( " ", tokens );
+                ParseTree tree = new ParseTree( tokens );
+                List< Machine.Instruction > program = tree.compile();
+                File assembly;
+                try {
+                    assembly = File.createTempFile( "perp", ".asm" );
+                    assembly.deleteOnExit();
+                    List< String > lines = new ArrayList<>( program.size() );
+                    for ( Machine.Instruction instr: program ) {
+                        lines.add( instr.toString() );
+                    }
+                    Files.write( assembly.toPath(), lines );
+                }
+                catch ( IOException ioe ) {
+                    throw new UncheckedIOException( ioe );
+                }
+                int n = tokens.size();
+                report( "tokenize", n, depth,
+                        measure( () -> blackhole = tokenize( source ) ) );
+                report( "parse", n, depth,
+                        measure( () -> blackhole = new ParseTree( tokens ) ) );
+                report( "interpret", n, depth,
+                        measure( quietly( tree::interpret ) ) );
+                report( "compile", n, depth,
+                        measure( () -> blackhole = tree.compile() ) );
+                report( "assemble", n, depth,
+                        measure( () -> blackhole = InstructionReader.assemble(
+                                assembly.getPath() ) ) );
+                report( "execute", n, depth,
+                        measure( quietly(
+                                () -> Machine.execute( program ) ) ) );
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * Split program text into tokens the way PerpTest reads a file.
+     * @param source the program text
+     * @return the tokens
+     */
+    private static List< String > tokenize( String source ) {
+        List< String > tokens = new ArrayList<>();
+        try ( Scanner in = new Scanner( source ) ) {
+            in.forEachRemaining( tokens::add );
+        }
+        return tokens;
+    }
+
+    /**
+     * Run a task {@link #warmup} times untimed, then {@link #iterations}
+     * times timed.
+     * @param task the work to be timed
+     * @return the mean, standard deviation and minimum time, in ms
+     */
+    private static double[] measure( Runnable task ) {
+        for ( int i = 0; i < warmup; ++i ) {
+            task.run();
+        }
+        double[] times = new double[ iterations ];
+        for ( int i = 0; i < iterations; ++i ) {
+            long start = System.nanoTime();
+            task.run();
+            times[ i ] = ( System.nanoTime() - start ) / 1e6;
+        }
+        double mean = Arrays.stream( times ).average().orElse( 0 );
+        double variance = Arrays.stream( times )
+                                .map( t -> ( t - mean ) * ( t - mean ) )
+                                .sum() / Math.max( 1, iterations - 1 );
+        return new double[]{ mean, Math.sqrt( variance ),
+                             Arrays.stream( times ).min().orElse( 0 ) };
+    }
+
+    /**
+     * Print one line of the stages benchmark.
+     * @param stage the stage's name
+     * @param tokens the program's length
+     * @param depth the program's expression depth
+     * @param times the mean, standard deviation and minimum, in ms
+     */
+    private static void report( String stage, int tokens, int depth,
+                                double[] times ) {
+        System.out.printf( "%-10s %10d %6d %12.3f %10.3f %12.3f\n", stage,
+                           tokens, depth, times[ 0 ], times[ 1 ], times[ 2 ] );
+    }
+
+    /**
+     * Time ParseTree construction against program length, for both
+     * array-backed and linked token lists. Linear parsing shows up as a
+     * constant time per token.
+     */
+    private static void parseScaling() {
+        System.out.println( "ParseTree construction" );
+        System.out.printf( "%12s %14s %14s %14s\n",
+                           "tokens", "ArrayList ms", "LinkedList ms",
+                           "ns/token" );
+        for ( int size: SIZES ) {
+            List< String > tokens = generated( size, DEPTH );
+            List< String > linked = new LinkedList<>( tokens );
+            long arrayTime = best( () -> new ParseTree( tokens ) );
+            long linkedTime = best( () -> new ParseTree( linked ) );
+            System.out.printf( "%12d %14.2f %14.2f %14.1f\n",
+                               tokens.size(), arrayTime / 1e6,
+                               linkedTime / 1e6,
+                               (double)arrayTime / tokens.size() );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Compare tree evaluation with operators resolved at construction
+     * against the old evaluator, which compared the operator string
+     * against each operator in turn on every evaluation. Both must
+     * agree on the value, and the resolved evaluator must be at least
+     * {@link #EVALUATION_SPEEDUP} times as fast. It is well ahead on
+     * small trees and about even on large ones.
+     */
+    private static void evaluation() {
+        final int evaluations = 200;
+        Random rand = new Random( 42 );
+        SymbolTable table = new SymbolTable();
+        for ( int i = 0; i < 10; ++i ) {
+            table.put( "v" + i, rand.nextInt( 100 ) + 1 );
+        }
+        System.out.println( "Tree evaluation, " + evaluations +
+                            " evaluations per tree" );
+        System.out.printf( "%12s %14s %14s %10s\n",
+                           "nodes", "strings ms", "resolved ms", "speedup" );
+        for ( int depth: new int[]{ 10, 14, 18 } ) {
+            ExpressionNode tree = randomExpression( depth, rand );
+            int nodes = ( 1 << ( depth + 1 ) ) - 1;
+            check( tree.evaluate( table ) == legacyEvaluate( tree, table ),
+                   "evaluators disagree on a tree of " + nodes + " nodes" );
+            int[] sink = new int[ 1 ];
+            long legacy = best( () -> {
+                for ( int i = 0; i < evaluations; ++i ) {
+                    sink[ 0 ] += legacyEvaluate( tree, table );
+                }
+            } );
+            long resolved = best( () -> {
+                for ( int i = 0; i < evaluations; ++i ) {
+                    sink[ 0 ] += tree.evaluate( table );
+                }
+            } );
+            double speedup = (double)legacy / resolved;
+            System.out.printf( "%12d %14.2f %14.2f %9.2fx\n",
+                               nodes, legacy / 1e6, resolved / 1e6, speedup );
+            check( speedup >= EVALUATION_SPEEDUP,
+                   "resolved evaluation of " + nodes + " nodes is only " +
+                   String.format( "%.2f", speedup ) +
+                   "x as fast as the old evaluator" );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Check that the JVM code made for programs of every size is split
+     * into methods small enough for HotSpot to compile, and show how
+     * long translating takes. A single statement can need a larger
+     * method, but the made-up programs have none that large.
+     */
+    private static void jitChunks() {
+        System.out.println( "JIT translation into methods" );
+        System.out.printf( "%12s %6s %10s %10s %12s\n", "tokens", "depth",
+                           "methods", "largest", "compile ms" );
+        for ( int size: SIZES ) {
+            for ( int depth: new int[]{ DEPTH, 8 } ) {
+                List< String > tokens = generated( size, depth );
+                ParseTree tree = new ParseTree( tokens );
+                JitCompiler.Compiled jit = tree.jitCompile();
+                long time = best( () -> blackhole = tree.jitCompile() );
+                System.out.printf( "%12d %6d %10d %10d %12.2f\n",
+                                   tokens.size(), depth, jit.methods(),
+                                   jit.largestMethod(), time / 1e6 );
+                check( jit.largestMethod() <= JitCompiler.HUGE_METHOD_BYTES,
+                       "a generated method has " + jit.largestMethod() +
+                       " bytes of code, more than HotSpot compiles" );
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * Compare the ways of running a whole program: walking the tree,
+     * the stack Machine, closures, and generated JVM code. Each program
+     * is run repeatedly, since that is the case the compiling engines
+     * are for. Output and the symbol table dump are left out.
+     */
+    private static void engines() {
+        final long work = 5_000_000;
+        System.out.println( "Execution engines, ns per token run" );
+        System.out.printf( "%12s %8s %10s %10s %10s %10s\n",
+                           "tokens", "runs", "tree", "machine", "closure",
+                           "jit" );
+        for ( int size: SIZES ) {
+            List< String > tokens = generated( size, DEPTH );
+            int runs = (int)Math.max( 1, work / tokens.size() );
+            ActionNode root = simplifiedTree( tokens );
+            ParseTree tree = new ParseTree( tokens );
+            List< Machine.Instruction > program = tree.compile( true );
+            ClosureCompiler.Compiled closures = tree.closureCompile();
+            JitCompiler.Compiled jit = tree.jitCompile();
+            long treeTime = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    root.execute( new SymbolTable() );
+                }
+            } );
+            long machineTime = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    new Machine().run( program );
+                }
+            } );
+            long closureTime = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    closures.run();
+                }
+            } );
+            long jitTime = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    jit.run();
+                }
+            } );
+            double perToken = (double)runs * tokens.size();
+            System.out.printf( "%12d %8d %10.2f %10.2f %10.2f %10.2f\n",
+                               tokens.size(), runs, treeTime / perToken,
+                               machineTime / perToken,
+                               closureTime / perToken, jitTime / perToken );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Compare the register machine with the stack code from emit(), run
+     * by both the object Machine and the BytecodeMachine, on the PerpTest
+     * programs and on made-up ones. Output is discarded.
+     */
+    private static void registers() {
+        final long work = 5_000_000;
+        System.out.println( "Register machine against stack code, " +
+                            "time per program run" );
+        System.out.printf( "%12s %10s %10s %12s %12s %12s\n",
+                           "program", "stack ins", "reg ins", "machine ns",
+                           "bytecode ns", "register ns" );
+        for ( int i = 0; i < PerpTest.NUM_TESTS; ++i ) {
+            compareRegisters( "test " + i, PerpTest.programs.get( i ),
+                              100_000 );
+        }
+        for ( int size: SIZES ) {
+            List< String > tokens = generated( size, DEPTH );
+            compareRegisters( tokens.size() + " tok", tokens,
+                              (int)Math.max( 1, work / tokens.size() ) );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Check that a Machine and a BytecodeMachine that run one program
+     * after another forget the variables of the earlier programs.
+     */
+    private static void reuse() {
+        System.out.println( "Machines reused for a second program" );
+        Machine machine = new Machine();
+        machine.setOutput( new MemorySink() );
+        checkReuse( "Machine",
+                    tokens -> machine.run( new ParseTree( tokens ).compile() ),
+                    machine::getSymbolTable );
+        BytecodeMachine bytecodeMachine = new BytecodeMachine();
+        bytecodeMachine.setOutput( new MemorySink() );
+        checkReuse( "BytecodeMachine",
+                    tokens -> bytecodeMachine.run( Bytecode.compile(
+                            new ParseTree( tokens ).compile() ) ),
+                    bytecodeMachine::getSymbolTable );
+        System.out.println();
+    }
+
+    /**
+     * Run three programs on one machine: one that sets x, one that sets
+     * y, and one that prints zzz, which was never set. The second one
+     * puts y in x's slot, and the third one zzz.
+     * @param label what to call the machine
+     * @param run compiles a program and runs it on the machine
+     * @param variables the machine's variables after a run
+     */
+    private static void checkReuse( String label,
+                                    Consumer< List< String > > run,
+                                    Supplier< SymbolTable > variables ) {
+        int failed = failures;
+        run.accept( Arrays.asList( ":=", "x", "5" ) );
+        run.accept( Arrays.asList( ":=", "y", "7" ) );
+        SymbolTable table = variables.get();
+        check( table.size() == 1 && table.exists( "y" ) &&
+               table.get( "y" ) == 7,
+               label + " kept the first program's variables" );
+        String unknown = null;
+        try {
+            run.accept( Arrays.asList( "@", "zzz" ) );
+        }
+        catch ( UnknownVariableException uve ) {
+            unknown = uve.getName();
+        }
+        check( "zzz".equals( unknown ),
+               label + " printed zzz, which the program never set" );
+        System.out.printf( "%-16s %s\n", label,
+                           failures == failed ? "ok" : "FAILED" );
+    }
+
+    /**
+     * Print one line of the register machine comparison.
+     * @param label what to call the program
+     * @param tokens the program
+     * @param runs how many times to run it per measurement
+     */
+    private static void compareRegisters( String label, List< String > tokens,
+                                          int runs ) {
+        ParseTree tree = new ParseTree( tokens );
+        List< Machine.Instruction > program = tree.compile( true );
+        Bytecode bytecode = Bytecode.compile( program );
+        RegisterProgram registerProgram = tree.registerCompile();
+        long machineTime = best( quietly( () -> {
+            for ( int i = 0; i < runs; ++i ) {
+                new Machine().run( program );
+            }
+        } ) );
+        long bytecodeTime = best( quietly( () -> {
+            for ( int i = 0; i < runs; ++i ) {
+                new BytecodeMachine().run( bytecode );
+            }
+        } ) );
+        long registerTime = best( quietly( () -> {
+            for ( int i = 0; i < runs; ++i ) {
+                new RegisterMachine().run( registerProgram );
+            }
+        } ) );
+        System.out.printf( "%12s %10d %10d %12.0f %12.0f %12.0f\n",
+                           label, program.size(),
+                           registerProgram.instructionCount(),
+                           (double)machineTime / runs,
+                           (double)bytecodeTime / runs,
+                           (double)registerTime / runs );
+    }
+
+    /**
+     * Compare Machine programs with and without superinstructions, on
+     * both the object Machine and the BytecodeMachine. Dispatches are
+     * instructions executed per run; the programs have no jumps, so
+     * that is the program's length.
+     */
+    private static void superinstructions() {
+        final long work = 5_000_000;
+        System.out.println( "Superinstructions, time per program run" );
+        System.out.printf( "%12s %10s %10s %12s %12s %12s %12s\n",
+                           "tokens", "plain ins", "fused ins", "machine ns",
+                           "fused ns", "bytecode ns", "fused ns" );
+        for ( int size: SIZES ) {
+            List< String > tokens = generated( size, DEPTH );
+            int runs = (int)Math.max( 1, work / tokens.size() );
+            List< Machine.Instruction > plain =
+                    new ParseTree( tokens ).compile();
+            List< Machine.Instruction > fused =
+                    new SuperinstructionSelector().select( plain );
+            Bytecode plainCode = Bytecode.compile( plain );
+            Bytecode fusedCode = Bytecode.compile( fused );
+            long[] times = new long[ 4 ];
+            times[ 0 ] = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    new Machine().run( plain );
+                }
+            } );
+            times[ 1 ] = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    new Machine().run( fused );
+                }
+            } );
+            times[ 2 ] = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    new BytecodeMachine().run( plainCode );
+                }
+            } );
+            times[ 3 ] = best( () -> {
+                for ( int i = 0; i < runs; ++i ) {
+                    new BytecodeMachine().run( fusedCode );
+                }
+            } );
+            System.out.printf( "%12d %10d %10d %12.0f %12.0f %12.0f %12.0f\n",
+                               tokens.size(), plain.size(), fused.size(),
+                               (double)times[ 0 ] / runs,
+                               (double)times[ 1 ] / runs,
+                               (double)times[ 2 ] / runs,
+                               (double)times[ 3 ] / runs );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Compare ways of writing a print-heavy program's output to a file:
+     * a println per value on a PrintStream set up like System.out
+     * (autoflushed, over an 8K buffer), as PRINT used to do, against a
+     * {@link BufferedSink}. The last column is the whole program run on
+     * the Machine into a BufferedSink.
+     */
+    private static void output() {
+        System.out.println( "Print-heavy output to a file, time per run" );
+        System.out.printf( "%12s %10s %12s %12s %8s %12s\n",
+                           "tokens", "lines", "println ms", "sink ms",
+                           "speedup", "machine ms" );
+        File file;
+        try {
+            file = File.createTempFile( "perp", ".out" );
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+        file.deleteOnExit();
+        for ( int size: SIZES ) {
+            WorkloadGenerator.Workload workload =
+                    new WorkloadGenerator( 42 ).tokens( size ).depth( 1 )
+                                               .variables( VARIABLES )
+                                               .printChance( 0.5 )
+                                               .generate();
+            int[] values = workload.printed().stream()
+                                   .mapToInt( Integer::intValue ).toArray();
+            List< Machine.Instruction > program =
+                    new ParseTree( workload.tokens() ).compile();
+            long printlnTime = best( () -> {
+                try ( PrintStream out = new PrintStream(
+                        new BufferedOutputStream(
+                                new FileOutputStream( file ), 8192 ),
+                        true ) ) {
+                    for ( int value: values ) {
+                        out.println( "*** " + value );
+                    }
+                }
+                catch ( IOException ioe ) {
+                    throw new UncheckedIOException( ioe );
+                }
+            } );
+            long sinkTime = best( () -> {
+                try ( BufferedSink out = BufferedSink.open( file.toPath() ) ) {
+                    for ( int value: values ) {
+                        out.println( "*** ", value );
+                    }
+                }
+                catch ( IOException ioe ) {
+                    throw new UncheckedIOException( ioe );
+                }
+            } );
+            long machineTime = best( () -> {
+                try ( BufferedSink out = BufferedSink.open( file.toPath() ) ) {
+                    Machine machine = new Machine();
+                    machine.setOutput( out );
+                    machine.run( program );
+                }
+                catch ( IOException ioe ) {
+                    throw new UncheckedIOException( ioe );
+                }
+            } );
+            System.out.printf( "%12d %10d %12.2f %12.2f %7.1fx %12.2f\n",
+                               workload.tokens().size(), values.length,
+                               printlnTime / 1e6, sinkTime / 1e6,
+                               (double)printlnTime / sinkTime,
+                               machineTime / 1e6 );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Time each stage of the pipeline on a single expression nested
+     * very deeply, in three shapes: operators that nest to the right
+     * ("+ x + x ... x x"), to the left ("+ + ... x x x"), and a chain
+     * of square roots. Each stage walks the tree with a stack in the
+     * heap, so it neither overflows the thread's stack nor slows down
+     * per level as the depth grows. Every run is checked against the
+     * value the expression should have, on the register machine too.
+     * The closure and JIT compilers are checked to run an expression
+     * as deep as they allow and to refuse deeper ones.
+     */
+    private static void deepExpressions() {
+        System.out.println( "Deeply nested expressions, ns per level" );
+        System.out.printf( "%-6s %10s %10s %10s %10s %10s %10s\n",
+                           "shape", "levels", "parse", "display",
+                           "interpret", "compile", "execute" );
+        int[] depths = { JitCompiler.MAX_DEPTH, 10_000, 100_000, 1_000_000 };
+        for ( String shape: new String[]{ "right", "left", "root" } ) {
+            for ( int levels: depths ) {
+                String what = shape + " expression of " + levels + " levels";
+                List< String > tokens = deepProgram( shape, levels );
+                int expected = shape.equals( "root" ) ? 1 : levels + 1;
+                ActionNode root = simplifiedTree( tokens );
+                SymbolTable table = new SymbolTable();
+                table.put( "x", 1 );
+                int value = ( (Assignment)( (ActionSequence)root )
+                        .actions.get( 1 ) ).getRhs().evaluate( table );
+                ParseTree tree = new ParseTree( tokens );
+                List< Machine.Instruction > program = tree.compile();
+                MemorySink out = new MemorySink();
+                Machine machine = new Machine();
+                machine.setOutput( out );
+                machine.run( program );
+                MemorySink registerOut = new MemorySink();
+                RegisterMachine registerMachine = new RegisterMachine();
+                registerMachine.setOutput( registerOut );
+                registerMachine.run( tree.registerCompile() );
+                check( value == expected,
+                       what + " came to " + value + ", not " + expected );
+                check( out.contents().equals( "*** " + expected + "\n" ),
+                       what + " printed " + out.contents().trim() +
+                       " on the Machine" );
+                check( registerOut.contents().equals(
+                               "*** " + expected + "\n" ),
+                       what + " printed " + registerOut.contents().trim() +
+                       " on the register machine" );
+                checkLimited( what + " in closures", levels,
+                              ClosureCompiler.MAX_DEPTH, expected,
+                              sink -> tree.closureCompile().run( sink ) );
+                checkLimited( what + " in JVM code", levels,
+                              JitCompiler.MAX_DEPTH, expected,
+                              sink -> tree.jitCompile().run( sink ) );
+                long parseTime = best( () -> blackhole =
+                        new ParseTree( tokens ) );
+                long displayTime = best( quietly( tree::displayProgram ) );
+                long interpretTime = best( quietly( tree::interpret ) );
+                long compileTime = best( () -> blackhole = tree.compile() );
+                long executeTime = best( quietly(
+                        () -> Machine.execute( program ) ) );
+                System.out.printf( "%-6s %10d %10.1f %10.1f %10.1f %10.1f " +
+                                   "%10.1f\n", shape, levels,
+                                   (double)parseTime / levels,
+                                   (double)displayTime / levels,
+                                   (double)interpretTime / levels,
+                                   (double)compileTime / levels,
+                                   (double)executeTime / levels );
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * Check an engine that runs expressions only up to some depth.
+     * @param what the program and engine, for the report
+     * @param levels how deeply the program's expression is nested
+     * @param limit the deepest nesting the engine allows
+     * @param expected the value the program should print
+     * @param engine runs the program, printing on the given sink
+     */
+    private static void checkLimited( String what, int levels, int limit,
+                                      int expected,
+                                      Consumer< OutputSink > engine ) {
+        MemorySink out = new MemorySink();
+        try {
+            engine.accept( out );
+            check( levels <= limit, what + " was not refused" );
+            check( out.contents().equals( "=== " + expected + "\n" ),
+                   what + " printed " + out.contents().trim() );
+        }
+        catch ( PerpLimitException ple ) {
+            check( levels > limit, what + " was refused" );
+        }
+        catch ( RuntimeException | StackOverflowError e ) {
+            check( false, what + " failed with " + e );
+        }
+    }
+
+    /**
+     * Make up a program that sets x to 1, then sets y to one deeply
+     * nested expression over x, then prints y.
+     * @param shape "right" for additions nested in their right operand,
+     *              "left" for additions nested in their left operand, or
+     *              "root" for nested square roots
+     * @param levels how many operators deep the expression is
+     * @return the program's tokens
+     */
+    private static List< String > deepProgram( String shape, int levels ) {
+        List< String > tokens = new ArrayList<>( 2 * levels + 10 );
+        tokens.addAll( Arrays.asList( ":=", "x", "1", ":=", "y" ) );
+        for ( int i = 0; i < levels; ++i ) {
+            switch ( shape ) {
+                case "right":
+                    tokens.add( BinaryOperation.ADD );
+                    tokens.add( "x" );
+                    break;
+                case "left":
+                    tokens.add( BinaryOperation.ADD );
+                    break;
+                default:
+                    tokens.add( UnaryOperation.SQRT );
+            }
+        }
+        tokens.add( "x" );
+        if ( shape.equals( "left" ) ) {
+            tokens.addAll( Collections.nCopies( levels, "x" ) );
+        }
+        tokens.addAll( Arrays.asList( "@", "y" ) );
+        return tokens;
+    }
+
+    /**
+     * Compare code generation that appends every instruction to one
+     * list, sized for the whole program, with the way the nodes used to
+     * emit: each node returned a new list holding copies of its
+     * children's lists. The old way copies each instruction once per
+     * level above it, which shows most on deep expressions. Both time
+     * and the bytes allocated per run are shown.
+     */
+    private static void codeGeneration() {
+        System.out.println( "Code generation, time and allocation per run" );
+        System.out.printf( "%-12s %10s %11s %11s %8s %11s %11s %8s\n",
+                           "program", "tokens", "copying ms", "sink ms",
+                           "speedup", "copying MB", "sink MB", "less" );
+        List< String > labels = new ArrayList<>();
+        List< List< String > > programs = new ArrayList<>();
+        for ( int size: SIZES ) {
+            for ( int depth: new int[]{ DEPTH, 8 } ) {
+                labels.add( "depth " + depth );
+                programs.add( generated( size, depth ) );
+            }
+        }
+        for ( int levels: new int[]{ 1_000, 2_000 } ) {
+            labels.add( "nested " + levels );
+            programs.add( deepProgram( "right", levels ) );
+        }
+        for ( int i = 0; i < programs.size(); ++i ) {
+            List< String > tokens = programs.get( i );
+            ActionNode root = simplifiedTree( tokens );
+            Runnable copying = () -> blackhole = legacyEmit( root );
+            Runnable sink = () -> {
+                List< Machine.Instruction > code =
+                        new ArrayList<>( tokens.size() );
+                root.emit( code );
+                blackhole = code;
+            };
+            check( legacyEmit( root ).toString().equals(
+                           root.emit().toString() ),
+                   "code differs for " + labels.get( i ) );
+            long copyingTime = best( copying );
+            long sinkTime = best( sink );
+            long copyingBytes = allocated( copying );
+            long sinkBytes = allocated( sink );
+            System.out.printf( "%-12s %10d %11.2f %11.2f %7.1fx %11.1f " +
+                               "%11.1f %7.1fx\n", labels.get( i ),
+                               tokens.size(), copyingTime / 1e6,
+                               sinkTime / 1e6,
+                               (double)copyingTime / sinkTime,
+                               copyingBytes / 1e6, sinkBytes / 1e6,
+                               (double)copyingBytes / sinkBytes );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Emit code the way the tree nodes used to: each node makes a new
+     * list and adds its children's lists to it.
+     * @param node the root of a tree
+     * @return the node's instructions
+     */
+    private static List< Machine.Instruction > legacyEmit( PerpNode node ) {
+        ArrayList< Machine.Instruction > data = new ArrayList<>();
+        if ( node instanceof ActionSequence ) {
+            for ( ActionNode action: ( (ActionSequence)node ).actions ) {
+                data.addAll( legacyEmit( action ) );
+            }
+        }
+        else if ( node instanceof Assignment ) {
+            Assignment assignment = (Assignment)node;
+            data.addAll( legacyEmit( assignment.getRhs() ) );
+            data.add( new Machine.Store( assignment.getIdent() ) );
+        }
+        else if ( node instanceof Print ) {
+            data.addAll( legacyEmit( ( (Print)node ).getPrintee() ) );
+            data.add( new Machine.Print() );
+        }
+        else if ( node instanceof BinaryOperation ) {
+            BinaryOperation op = (BinaryOperation)node;
+            data.addAll( legacyEmit( op.getLeftChild() ) );
+            data.addAll( legacyEmit( op.getRightChild() ) );
+            data.add( op.getOp().instruction() );
+        }
+        else if ( node instanceof UnaryOperation ) {
+            UnaryOperation op = (UnaryOperation)node;
+            data.addAll( legacyEmit( op.getExpr() ) );
+            data.add( op.getOp().instruction() );
+        }
+        else {
+            data.addAll( node.emit() );
+        }
+        return data;
+    }
+
+    /**
+     * Measure how much memory a task allocates, as the JVM counts it
+     * for the running thread.
+     * @param task the work
+     * @return the bytes allocated by one run of it
+     */
+    private static long allocated( Runnable task ) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                        ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes( id );
+        task.run();
+        return threads.getThreadAllocatedBytes( id ) - before;
+    }
+
+    /**
+     * Compare ways of writing a program's infix display and its
+     * compiled code listing to a file. The old way printed each piece of
+     * text, a token or an instruction at a time, on a PrintStream set up
+     * like System.out. The new way renders the text into a StringBuilder
+     * sized by a counting pass and prints it once, or renders it
+     * straight into a {@link BufferedSink}.
+     */
+    private static void listing() {
+        System.out.println( "Program display and code listing to a file, " +
+                            "time per run" );
+        System.out.printf( "%12s %-8s %12s %12s %12s %8s\n",
+                           "tokens", "text", "stream ms", "buffer ms",
+                           "sink ms", "speedup" );
+        File file;
+        try {
+            file = File.createTempFile( "perp", ".lst" );
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+        file.deleteOnExit();
+        for ( int size: SIZES ) {
+            List< String > tokens = generated( size, DEPTH );
+            ParseTree tree = new ParseTree( tokens );
+            ActionSequence parsed = new ActionSequence();
+            try ( StatementReader in = new StatementReader(
+                    new StringReader( String.join( " ", tokens ) ) ) ) {
+                for ( ActionNode action = in.next(); action != null;
+                      action = in.next() ) {
+                    parsed.addAction( action );
+                }
+            }
+            catch ( IOException ioe ) {
+                throw new UncheckedIOException( ioe );
+            }
+            List< Machine.Instruction > program = tree.compile();
+            listingRow( tokens.size(), "display", file,
+                        out -> legacyDisplay( parsed, out ),
+                        tree::programLength, tree::displayProgram );
+            listingRow( tokens.size(), "listing", file,
+                        out -> {
+                            for ( Machine.Instruction instr: program ) {
+                                out.println( instr );
+                            }
+                        },
+                        () -> Machine.listingLength( program ),
+                        out -> Machine.listInstructions( program, out ) );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Time one kind of text written the three ways, and print a line
+     * of the listing benchmark.
+     * @param tokens the program's length
+     * @param label what the text is
+     * @param file where the text goes
+     * @param stream writes the text a piece at a time on a stream
+     * @param length counts the text's characters
+     * @param render writes the text to an Appendable
+     */
+    private static void listingRow( int tokens, String label, File file,
+                                    Consumer< PrintStream > stream,
+                                    IntSupplier length,
+                                    Consumer< Appendable > render ) {
+        long streamTime = best( () -> {
+            try ( PrintStream out = new PrintStream(
+                    new BufferedOutputStream(
+                            new FileOutputStream( file ), 8192 ),
+                    true ) ) {
+                stream.accept( out );
+            }
+            catch ( IOException ioe ) {
+                throw new UncheckedIOException( ioe );
+            }
+        } );
+        long bufferTime = best( () -> {
+            try ( PrintStream out = new PrintStream(
+                    new BufferedOutputStream(
+                            new FileOutputStream( file ), 8192 ),
+                    true ) ) {
+                StringBuilder text = new StringBuilder( length.getAsInt() );
+                render.accept( text );
+                out.print( text );
+            }
+            catch ( IOException ioe ) {
+                throw new UncheckedIOException( ioe );
+            }
+        } );
+        long sinkTime = best( () -> {
+            try ( BufferedSink out = BufferedSink.open( file.toPath() ) ) {
+                render.accept( out );
+            }
+            catch ( IOException ioe ) {
+                throw new UncheckedIOException( ioe );
+            }
+        } );
+        System.out.printf( "%12d %-8s %12.2f %12.2f %12.2f %7.1fx\n",
+                           tokens, label, streamTime / 1e6,
+                           bufferTime / 1e6, sinkTime / 1e6,
+                           (double)streamTime / Math.min( bufferTime,
+                                                          sinkTime ) );
+    }
+
+    /**
+     * Display a program the way the tree nodes used to: each token
+     * printed by itself, straight to the stream.
+     * @param node the root of a tree
+     * @param out the stream
+     */
+    private static void legacyDisplay( PerpNode node, PrintStream out ) {
+        if ( node instanceof ActionSequence ) {
+            for ( ActionNode action: ( (ActionSequence)node ).actions ) {
+                legacyDisplay( action, out );
+            }
+        }
+        else if ( node instanceof Assignment ) {
+            Assignment assignment = (Assignment)node;
+            out.print( assignment.getIdent() + " := " );
+            legacyDisplay( assignment.getRhs(), out );
+            out.println();
+        }
+        else if ( node instanceof Print ) {
+            out.print( "Print " );
+            legacyDisplay( ( (Print)node ).getPrintee(), out );
+            out.println();
+        }
+        else if ( node instanceof BinaryOperation ) {
+            BinaryOperation op = (BinaryOperation)node;
+            out.print( "( " );
+            legacyDisplay( op.getLeftChild(), out );
+            out.print( " " + op.getOperator() + " " );
+            legacyDisplay( op.getRightChild(), out );
+            out.print( " )" );
+        }
+        else if ( node instanceof UnaryOperation ) {
+            UnaryOperation op = (UnaryOperation)node;
+            out.print( op.getOperator() );
+            legacyDisplay( op.getExpr(), out );
+        }
+        else if ( node instanceof Constant ) {
+            out.print( ( (Constant)node ).getValue() );
+        }
+        else {
+            out.print( ( (Variable)node ).getName() );
+        }
+    }
+
+    /**
+     * Compare the {@link SymbolTable} with the table it replaced, a
+     * HashMap from names to boxed values that was searched twice for
+     * each get. For each number of variables this shows the heap each
+     * table takes per variable, not counting the names, which both
+     * share; the time to assign every variable, and to look them all
+     * up in a random order, a million lookups a run; and the bytes that
+     * dumping the table makes.
+     */
+    private static void symbols() {
+        System.out.println( "Symbol tables, per variable" );
+        System.out.printf( "%10s %-8s %10s %10s %10s %10s\n",
+                           "variables", "table", "bytes", "put ns",
+                           "get ns", "dump B" );
+        Random rand = new Random( 42 );
+        OutputSink discard = new OutputSink() {
+            @Override public void print( CharSequence text ) {}
+            @Override public void print( int value ) {}
+            @Override public void print( CharSequence text, int width ) {}
+            @Override public void print( int value, int width ) {}
+            @Override public void newline() {}
+            @Override public void flush() {}
+        };
+        for ( int count: new int[]{ 1_000, 10_000, 100_000 } ) {
+            String[] names = new String[ count ];
+            int[] values = new int[ count ];
+            for ( int i = 0; i < count; ++i ) {
+                names[ i ] = ( "v" + i ).intern();
+                values[ i ] = rand.nextInt();
+            }
+            String[] lookups = names.clone();
+            Collections.shuffle( Arrays.asList( lookups ), rand );
+            int tables = Math.max( 1, 1_000_000 / count );
+            int passes = tables;
+
+            long bytes = footprint( tables, () -> {
+                SymbolTable table = new SymbolTable( discard );
+                for ( int i = 0; i < count; ++i ) {
+                    table.put( names[ i ], values[ i ] );
+                }
+                return table;
+            } );
+            SymbolTable table = new SymbolTable( discard );
+            long putTime = best( () -> {
+                SymbolTable fresh = new SymbolTable( discard );
+                for ( int i = 0; i < count; ++i ) {
+                    fresh.put( names[ i ], values[ i ] );
+                }
+                blackhole = fresh;
+            } );
+            for ( int i = 0; i < count; ++i ) {
+                table.put( names[ i ], values[ i ] );
+            }
+            long getTime = best( () -> {
+                int sum = 0;
+                for ( int pass = 0; pass < passes; ++pass ) {
+                    for ( String name: lookups ) {
+                        sum += table.get( name );
+                    }
+                }
+                blackhole = sum;
+            } ) / passes;
+            long dumpBytes = allocated( () -> table.dump( discard ) );
+            symbolsRow( count, "arrays", bytes / tables, putTime,
+                        getTime, dumpBytes );
+
+            bytes = footprint( tables, () -> {
+                LegacySymbolTable legacy = new LegacySymbolTable();
+                for ( int i = 0; i < count; ++i ) {
+                    legacy.put( names[ i ], values[ i ] );
+                }
+                return legacy;
+            } );
+            LegacySymbolTable legacy = new LegacySymbolTable();
+            putTime = best( () -> {
+                LegacySymbolTable fresh = new LegacySymbolTable();
+                for ( int i = 0; i < count; ++i ) {
+                    fresh.put( names[ i ], values[ i ] );
+                }
+                blackhole = fresh;
+            } );
+            for ( int i = 0; i < count; ++i ) {
+                legacy.put( names[ i ], values[ i ] );
+            }
+            getTime = best( () -> {
+                int sum = 0;
+                for ( int pass = 0; pass < passes; ++pass ) {
+                    for ( String name: lookups ) {
+                        sum += legacy.get( name );
+                    }
+                }
+                blackhole = sum;
+            } ) / passes;
+            dumpBytes = allocated( () -> legacy.dump( discard ) );
+            symbolsRow( count, "HashMap", bytes / tables, putTime,
+                        getTime, dumpBytes );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Print a line of the symbols benchmark.
+     * @param count how many variables the tables hold
+     * @param label which table
+     * @param bytes the heap one table takes
+     * @param putTime nanoseconds to assign every variable
+     * @param getTime nanoseconds to look every variable up
+     * @param dumpBytes bytes allocated by a dump
+     */
+    private static void symbolsRow( int count, String label, long bytes,
+                                    long putTime, long getTime,
+                                    long dumpBytes ) {
+        System.out.printf( "%10d %-8s %10.1f %10.1f %10.1f %10d\n",
+                           count, label, (double)bytes / count,
+                           (double)putTime / count, (double)getTime / count,
+                           dumpBytes );
+    }
+
+    /**
+     * Measure how much heap some objects take, by building several and
+     * seeing how much more the heap holds once garbage is collected.
+     * @param copies how many to build
+     * @param build makes one
+     * @return the heap all of them take, in bytes
+     */
+    private static long footprint( int copies,
+                                   Supplier< Object > build ) {
+        Object[] kept = new Object[ copies ];
+        long before = heapUsed();
+        for ( int i = 0; i < copies; ++i ) {
+            kept[ i ] = build.get();
+        }
+        long after = heapUsed();
+        blackhole = kept;
+        return after - before;
+    }
+
+    /**
+     * @return the bytes of heap in use once garbage is collected
+     */
+    private static long heapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 3; ++i ) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The symbol table as it was: a HashMap from names to boxed values,
+     * searched once to see if a name is there and again to get it.
+     */
+    private static class LegacySymbolTable {
+        private final Map< String, Integer > table = new HashMap<>();
+
+        int get( String name ) {
+            if ( !table.containsKey( name ) ) {
+                throw new UnknownVariableException( name );
+            }
+            return table.get( name );
+        }
+
+        void put( String ident, int value ) {
+            table.put( ident, value );
+        }
+
+        void dump( OutputSink out ) {
+            out.print( "Symbol Table Contents\n=====================\n\n" );
+            for ( Map.Entry< String, Integer > entry: table.entrySet() ) {
+                out.print( entry.getKey(), 12 );
+                out.print( " : " );
+                out.print( entry.getValue(), 11 );
+                out.newline();
+            }
+        }
+    }
+
+    /**
+     * @param task some work that prints on standard output
+     * @return the same work with standard output thrown away
+     */
+    private static Runnable quietly( Runnable task ) {
+        return () -> {
+            PrintStream out = System.out;
+            System.setOut( new PrintStream( new OutputStream() {
+                @Override
+                public void write( int b ) {}
+            } ) );
+            try {
+                task.run();
+            }
+            finally {
+                System.setOut( out );
+            }
+        };
+    }
+
+    /**
+     * Parse and simplify a program the way ParseTree does, but keep
+     * the tree so that it can be run without the report around it.
+     * @param tokens the program
+     * @return the root of the simplified tree
+     */
+    private static ActionNode simplifiedTree( List< String > tokens ) {
+        ActionSequence root = new ActionSequence();
+        try ( StatementReader in = new StatementReader(
+                new StringReader( String.join( " ", tokens ) ) ) ) {
+            for ( ActionNode action = in.next(); action != null;
+                  action = in.next() ) {
+                root.addAction( Simplifier.simplify( action ) );
+            }
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+        return root;
+    }
+
+    /**
+     * Evaluate an expression the way the tree nodes used to: by
+     * comparing the operator symbol with each known operator.
+     * @param expr the expression
+     * @param symTab where variable values are found
+     * @return the expression's value
+     */
+    private static int legacyEvaluate( ExpressionNode expr,
+                                       SymbolTable symTab ) {
+        if ( expr instanceof BinaryOperation ) {
+            BinaryOperation op = (BinaryOperation)expr;
+            String operator = op.getOperator();
+            if ( operator.equals( BinaryOperation.ADD ) ) {
+                return legacyEvaluate( op.getLeftChild(), symTab ) +
+                       legacyEvaluate( op.getRightChild(), symTab );
+            }
+            else if ( operator.equals( BinaryOperation.SUB ) ) {
+                return legacyEvaluate( op.getLeftChild(), symTab ) -
+                       legacyEvaluate( op.getRightChild(), symTab );
+            }
+            else if ( operator.equals( BinaryOperation.MUL ) ) {
+                return legacyEvaluate( op.getLeftChild(), symTab ) *
+                       legacyEvaluate( op.getRightChild(), symTab );
+            }
+            else {
+                int left = legacyEvaluate( op.getLeftChild(), symTab );
+                int right = legacyEvaluate( op.getRightChild(), symTab );
+                return right == 0 ? 0 : left / right;
+            }
+        }
+        else if ( expr instanceof UnaryOperation ) {
+            UnaryOperation op = (UnaryOperation)expr;
+            if ( op.getOperator().equals( UnaryOperation.NEG ) ) {
+                return -legacyEvaluate( op.getExpr(), symTab );
+            }
+            else {
+                int value = legacyEvaluate( op.getExpr(), symTab );
+                legacyEvaluate( op.getExpr(), symTab );
+                return value < 0 ? 0 : (int)Math.sqrt( value );
+            }
+        }
+        return expr.evaluate( symTab );
+    }
+
+    /**
+     * Make up a full binary expression tree of addition, subtraction
+     * and multiplication, with the occasional negation, over the
+     * variables v0 to v9 and small constants.
+     * @param depth the number of levels of binary operators
+     * @param rand the source of random choices
+     * @return the root of the tree
+     */
+    private static ExpressionNode randomExpression( int depth,
+                                                    Random rand ) {
+        if ( depth == 0 ) {
+            return rand.nextBoolean() ?
+                   new Variable( "v" + rand.nextInt( 10 ) ) :
+                   new Constant( rand.nextInt( 100 ) );
+        }
+        String[] operators = { BinaryOperation.ADD, BinaryOperation.SUB,
+                               BinaryOperation.MUL };
+        ExpressionNode node = new BinaryOperation(
+                operators[ rand.nextInt( operators.length ) ],
+                randomExpression( depth - 1, rand ),
+                randomExpression( depth - 1, rand ) );
+        return rand.nextInt( 8 ) == 0 ?
+               new UnaryOperation( UnaryOperation.NEG, node ) : node;
+    }
+
+    /**
+     * Run a task several times.
+     * @param task the work to be timed
+     * @return the shortest time taken, in nanoseconds
+     */
+    private static long best( Runnable task ) {
+        long best = Long.MAX_VALUE;
+        for ( int i = 0; i < REPEATS; ++i ) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min( best, System.nanoTime() - start );
+        }
+        return best;
+    }
+
+    /**
+     * Make up a Perp program of about the given length with the
+     * {@link WorkloadGenerator}, from a fixed seed, so that runs are
+     * repeatable. Only addition, subtraction and multiplication are used.
+     * @param tokens the approximate number of tokens wanted
+     * @param depth the number of levels of operators in each expression
+     * @return the program's tokens
+     */
+    private static List< String > generated( int tokens, int depth ) {
+        return new WorkloadGenerator( 42 ).tokens( tokens ).depth( depth )
+                                          .variables( VARIABLES )
+                                          .generate().tokens();
+    }
+}
@@ -1,13 +1,35 @@
+import perp.Errors;
+import perp.OutputSink;
+import perp.PerpException;
+import perp.WorkloadGenerator;
+import perp.machine.PeepholeOptimizer;
+import perp.machine.ProgramCache;
+import perp.machine.RegisterMachine;
+import perp.machine.RegisterProgram;
+import perp.machine.SuperinstructionSelector;
 import perp.machine.stu.Machine;
+import perp.machine.stu.MachineProfiler;
+import perp.machine.stu.Program;
 import perp.tree.stu.ParseTree;
+import perp.tree.stu.StatementReader;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
 import java.util.LinkedList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Run a test of the perp language system.
@@ -16,7 +38,7 @@ import java.util.Scanner;
  */
 public class PerpTest {
 
-    private static List< List< String > > programs = Arrays.asList(
+    static List< List< String > > programs = Arrays.asList(
             new LinkedList<>( Arrays.asList( ":=", "x", "55" ) ),
             new LinkedList<>( Arrays.asList(
                     ":=", "able", "77",
@@ -51,19 +73,99 @@ public class PerpTest {
 
     public static int NUM_TESTS = programs.size();
 
+    /** whether to run the peephole optimizer on the compiled code */
+    private static boolean optimize = false;
+
+    /** whether to also run the program as JIT-compiled JVM code */
+    private static boolean jit = false;
+
+    /** whether to also run the program on the register machine */
+    private static boolean registers = false;
+
+    /** how many programs of a directory to run at once */
+    private static int threads = Runtime.getRuntime().availableProcessors();
+
+    /** how many compiled programs the cache keeps in memory */
+    private static final int CACHE_CAPACITY = 256;
+
+    /** compiled programs already seen, or null to compile every time */
+    private static ProgramCache< ParseTree > cache = null;
+
     /**
      * Run a test on the Perp programming system
      * @param args if numeric and the number is less than the number of
      *             private stored tests, run the private test corresponding
-     *             to that number; if other args, consider them tokens
+     *             to that number; if not numeric, run every program in
+     *             that directory (see {@link #batch(File)});
+     *             if other args, consider them tokens
      *             of a Perp program and run tests on that program;
      *             if no arguments, read the source program from standard
-     *             input.
+     *             input; if "-s" and a file name, stream the program
+     *             in that file (see {@link #stream(String)}); if "-g"
+     *             and a number, run a program made up by the
+     *             {@link WorkloadGenerator} with that seed.
+     *             Any of these may be preceded by "-O" to compile
+     *             the simplified parse tree and run the peephole
+     *             optimizer and superinstruction selection on the
+     *             compiled code, by "-j"
+     *             to also run the program as JIT-compiled JVM code,
+     *             by "-r" to also run it on the register machine,
+     *             by "-p" to profile the Machine's execution
+     *             (see {@link MachineProfiler}), by "-t" and a
+     *             number to run that many programs of a directory
+     *             at once, and by "-k" and a directory to keep
+     *             compiled programs in a {@link ProgramCache} that
+     *             stores them in that directory, as
+     *             {@link perp.machine.InstructionReader} does.
      */
     public static void main( String... args ) {
         List< String > tokenList;
 
-        if ( args.length == 0 ) {
+        int flags = 0;
+        while ( flags < args.length ) {
+            if ( args[ flags ].equals( "-O" ) ) {
+                optimize = true;
+            }
+            else if ( args[ flags ].equals( "-j" ) ) {
+                jit = true;
+            }
+            else if ( args[ flags ].equals( "-r" ) ) {
+                registers = true;
+            }
+            else if ( args[ flags ].equals( "-p" ) ) {
+                MachineProfiler.enable();
+            }
+            else if ( args[ flags ].equals( "-t" ) &&
+                      flags + 1 < args.length ) {
+                threads = Math.max( 1, Integer.parseInt( args[ ++flags ] ) );
+            }
+            else if ( args[ flags ].equals( "-k" ) &&
+                      flags + 1 < args.length ) {
+                cache = new ProgramCache<>(
+                        CACHE_CAPACITY, Paths.get( args[ ++flags ] ) );
+            }
+            else if ( args[ flags ].equals( "-t" ) ||
+                      args[ flags ].equals( "-k" ) ) {
+                usage();
+            }
+            else {
+                break;
+            }
+            ++flags;
+        }
+        args = Arrays.copyOfRange( args, flags, args.length );
+
+        if ( args.length == 2 && args[ 0 ].equals( "-s" ) ) {
+            stream( args[ 1 ] );
+            return;
+        }
+        if ( args.length == 2 && args[ 0 ].equals( "-g" ) ) {
+            tokenList = new WorkloadGenerator( Long.parseLong( args[ 1 ] ) )
+                    .statements( 10 ).variables( 5 ).depth( 3 )
+                    .weight( "//", 1 ).weight( "_", 1 ).weight( "#", 1 )
+                    .printChance( 0.2 ).generate().tokens();
+        }
+        else if ( args.length == 0 ) {
             tokenList = new LinkedList<>();
             try ( Scanner text = new Scanner( System.in ) ) {
                 System.out.print("PERP> ");
@@ -85,34 +187,9 @@ public class PerpTest {
                 // Illegal test number.
                 // Assume argument is a directory of tests.
                 //
-                String[] dummy = new String[ 0 ];
-                File dir = new File( args[ 0 ] );
-                File[] files = dir.listFiles();
-                if ( files == null ) {
-                    System.err.println( "Provided directory " +
-                                        args[ 0 ] +
-                                        " does not exist." );
-                    System.exit( 1 );
-                }
-                else {
-                    for ( File file: files ) {
-                        System.out.println( "\nTest File " +
-                                     file.getName() + ":\n" );
-                        tokenList = new ArrayList<>();
-                        try ( Scanner fileIn = new Scanner( file ) ) {
-                            fileIn.forEachRemaining( tokenList::add );
-                        }
-                        catch( FileNotFoundException fnfe ) {
-                            System.err.println( fnfe );
-                            continue;
-                        }
-                        PerpTest.main( tokenList.toArray( dummy ) );
-                        System.out.println( "\n_________________________" +
-                                              "_________________________" +
-                                              "_________________________" );
-                    }
-                }
-                System.exit( 0 );
+                int status = batch( new File( args[ 0 ] ) );
+                reportCache();
+                System.exit( status );
             }
             if (testNum < 0 || testNum >= NUM_TESTS) {
                 System.err.println("Test number out of range: " + args[0] );
@@ -125,16 +202,318 @@ public class PerpTest {
             tokenList = new LinkedList<>( Arrays.asList( args ) );
         }
 
-        ParseTree tree = new ParseTree( tokenList );
+        try {
+            run( tokenList );
+        }
+        catch( PerpException pe ) {
+            Errors.report( pe );
+            System.exit( Errors.EXIT_STATUS );
+        }
+        reportCache();
+    }
+
+    /**
+     * Explain the command line on standard error and exit.
+     */
+    private static void usage() {
+        System.err.println(
+                "Usage: java PerpTest [-O] [-j] [-r] [-p] [-t threads] " +
+                "[-k cache-dir]\n" +
+                "                     [test-number | directory | " +
+                "-s file | -g seed | token...]\n" +
+                "  -O  fold constants and optimize the compiled code\n" +
+                "  -j  also run the program as JIT-compiled JVM code\n" +
+                "  -r  also run the program on the register machine\n" +
+                "  -p  profile the Machine's execution\n" +
+                "  -t  run this many programs of a directory at once\n" +
+                "  -k  keep compiled programs in cache-dir" );
+        System.exit( 1 );
+    }
+
+    /**
+     * Show how the program cache was used, if there is one.
+     */
+    private static void reportCache() {
+        if ( cache != null ) {
+            System.out.println( "\n" + cache.report() );
+        }
+    }
+
+    /**
+     * Put a program through every stage: display it, interpret it,
+     * compile it and run the code, along with whatever the flags ask for.
+     * If there is a cache and the program is in it, the compiled code,
+     * and the parse tree if it was kept, are taken from there instead.
+     * @param tokenList the program's tokens
+     * @throws PerpException if the program cannot be parsed or fails
+     *         while running
+     */
+    private static void run( List< String > tokenList ) {
+        String key = null;
+        ProgramCache.Entry< ParseTree > cached = null;
+        if ( cache != null ) {
+            key = ProgramCache.key( tokenList, optimize ? "O" : "" );
+            cached = cache.get( key );
+        }
+
+        ParseTree tree = cached != null && cached.extra() != null ?
+                cached.extra() : new ParseTree( tokenList );
 
         tree.displayProgram();
 
         tree.interpret();
 
-        List< Machine.Instruction > program = tree.compile();
+        List< Machine.Instruction > program;
+        if ( cached != null ) {
+            program = cached.program();
+            System.out.print( "\nUsing cached compiled program.\n" );
+        }
+        else {
+            program = tree.compile( optimize );
+
+            if ( optimize ) {
+                PeepholeOptimizer optimizer = new PeepholeOptimizer();
+                program = optimizer.optimize( program );
+                System.out.print( "\n" + optimizer.report() );
+                SuperinstructionSelector selector = new SuperinstructionSelector();
+                program = selector.select( program );
+                System.out.print( "\n" + selector.report() );
+            }
+
+            if ( cache != null ) {
+                program = cache.put( key, Program.link( program ), tree )
+                               .program();
+            }
+        }
 
         Machine.displayInstructions( program );
 
         Machine.execute( program );
+
+        if ( registers ) {
+            RegisterProgram registerProgram = tree.registerCompile();
+            RegisterMachine.displayInstructions( registerProgram );
+            RegisterMachine.execute( registerProgram );
+        }
+
+        if ( jit ) {
+            tree.jitExecute();
+        }
+    }
+
+    /**
+     * Run every program in a directory, {@link #threads} at a time.
+     * Each program's standard output and standard error are captured
+     * while it runs, and then shown a file at a time, in order of file
+     * name, just as if the programs had been run one after another. A
+     * program that fails does not stop the others. A summary of how
+     * many programs ran, how many failed, and how fast, comes last.
+     * @param dir the directory
+     * @return the exit status: 0 if every program ran, 1 if the
+     *         directory cannot be read, and 2 if any program failed
+     */
+    static int batch( File dir ) {
+        File[] files = dir.listFiles();
+        if ( files == null ) {
+            System.err.println( "Provided directory " + dir +
+                                " does not exist." );
+            return 1;
+        }
+        Arrays.sort( files );
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        Capture out = new Capture( stdout );
+        Capture err = new Capture( stderr );
+        System.setOut( new PrintStream( out, true ) );
+        System.setErr( new PrintStream( err, true ) );
+        ExecutorService pool = Executors.newFixedThreadPool( threads );
+        List< String > failures = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            List< Future< Outcome > > outcomes = new ArrayList<>();
+            for ( File file: files ) {
+                outcomes.add( pool.submit( () -> runFile( file, out, err ) ) );
+            }
+            for ( Future< Outcome > future: outcomes ) {
+                Outcome outcome = future.get();
+                stdout.println( "\nTest File " + outcome.name + ":\n" );
+                stdout.write( outcome.out, 0, outcome.out.length );
+                stdout.flush();
+                stderr.write( outcome.err, 0, outcome.err.length );
+                if ( outcome.err.length > 0 &&
+                     outcome.err[ outcome.err.length - 1 ] != '\n' ) {
+                    stderr.println();
+                }
+                stderr.flush();
+                stdout.println( "\n_________________________" +
+                                "_________________________" +
+                                "_________________________" );
+                if ( outcome.failed ) {
+                    failures.add( outcome.name );
+                }
+            }
+        }
+        catch( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Batch run interrupted", ie );
+        }
+        catch( ExecutionException ee ) {
+            throw new IllegalStateException( "Batch run failed", ee.getCause() );
+        }
+        finally {
+            pool.shutdownNow();
+            System.setOut( stdout );
+            System.setErr( stderr );
+        }
+        double seconds = ( System.nanoTime() - start ) / 1e9;
+        System.out.printf( "\nBatch: %d programs, %d failed, %d threads, " +
+                           "%.3f s, %.1f programs/s\n",
+                           files.length, failures.size(), threads, seconds,
+                           files.length / seconds );
+        for ( String name: failures ) {
+            System.out.println( "  failed: " + name );
+        }
+        return failures.isEmpty() ? 0 : Errors.EXIT_STATUS;
+    }
+
+    /**
+     * Run the program in a file, capturing everything it writes.
+     * Whatever the program throws marks it as failed, except for an
+     * internal error of the JVM, which ends the batch.
+     * @param file the file
+     * @param out the stream that System.out writes to
+     * @param err the stream that System.err writes to
+     * @return what the program wrote, and whether it failed
+     */
+    private static Outcome runFile( File file, Capture out, Capture err ) {
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        out.redirect( outBytes );
+        err.redirect( errBytes );
+        boolean failed = true;
+        try {
+            List< String > tokenList = new ArrayList<>();
+            try ( Scanner fileIn = new Scanner( file ) ) {
+                fileIn.forEachRemaining( tokenList::add );
+            }
+            run( tokenList );
+            failed = false;
+        }
+        catch( FileNotFoundException fnfe ) {
+            System.err.println( fnfe );
+        }
+        catch( PerpException pe ) {
+            Errors.report( pe );
+        }
+        catch( InternalError | UnknownError broken ) {
+            // The JVM itself is in trouble; no other program can be trusted.
+            throw broken;
+        }
+        catch( Throwable t ) {
+            // Anything else, even running out of memory or stack, is
+            // this one program's failure.
+            t.printStackTrace();
+        }
+        finally {
+            OutputSink.standard().flush();
+            out.redirect( null );
+            err.redirect( null );
+        }
+        return new Outcome( file.getName(), outBytes.toByteArray(),
+                            errBytes.toByteArray(), failed );
+    }
+
+    /**
+     * What running one program of a batch produced.
+     */
+    private static final class Outcome {
+        final String name;
+        final byte[] out;
+        final byte[] err;
+        final boolean failed;
+
+        Outcome( String name, byte[] out, byte[] err, boolean failed ) {
+            this.name = name;
+            this.out = out;
+            this.err = err;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * A stream that each thread can point somewhere of its own, so
+     * that programs running at the same time keep their output apart.
+     * Threads that have not done so write to the stream it replaces.
+     */
+    private static final class Capture extends OutputStream {
+        private final OutputStream fallback;
+        private final ThreadLocal< OutputStream > target = new ThreadLocal<>();
+
+        Capture( OutputStream fallback ) {
+            this.fallback = fallback;
+        }
+
+        /**
+         * @param to where the calling thread's output goes from now
+         *           on, or null for the replaced stream
+         */
+        void redirect( OutputStream to ) {
+            if ( to == null ) {
+                target.remove();
+            }
+            else {
+                target.set( to );
+            }
+        }
+
+        private OutputStream current() {
+            OutputStream to = target.get();
+            return to == null ? fallback : to;
+        }
+
+        @Override
+        public void write( int b ) throws IOException {
+            current().write( b );
+        }
+
+        @Override
+        public void write( byte[] bytes, int offset, int length )
+                throws IOException {
+            current().write( bytes, offset, length );
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+    }
+
+    /**
+     * Run a Perp program in streaming mode: each statement is read,
+     * parsed and run before the next one is read, first by the tree
+     * interpreter and then by the Machine. The program is never held
+     * in memory as a whole, so it is not displayed.
+     * @param sourceFile the name of the file holding the program
+     */
+    public static void stream( String sourceFile ) {
+        try {
+            try ( StatementReader in = new StatementReader(
+                    FileChannel.open( Paths.get( sourceFile ) ) ) ) {
+                ParseTree.interpret( in );
+            }
+            System.out.println();
+            try ( StatementReader in = new StatementReader(
+                    FileChannel.open( Paths.get( sourceFile ) ) ) ) {
+                ParseTree.execute( in );
+            }
+        }
+        catch( IOException ioe ) {
+            System.err.println( "Could not read " + sourceFile + ": " + ioe );
+            System.exit( 1 );
+        }
+        catch( PerpException pe ) {
+            Errors.report( pe );
+            System.exit( Errors.EXIT_STATUS );
+        }
     }
 }
@@ -0,0 +1,196 @@
+package perp.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import perp.OutputSink;
+import perp.SymbolTable;
+import perp.WorkloadGenerator;
+import perp.machine.InstructionReader;
+import perp.machine.stu.Machine;
+import perp.tree.stu.ParseTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of the Perp pipeline on its own, from tokenizing the
+ * source text to running the compiled code, for every combination of
+ * program size and expression depth. These are the stages of
+ * PerpBenchmark's "stages" section, measured by JMH: each in forked
+ * JVMs, after warmup, with results consumed so that they cannot be
+ * optimized away.
+ *
+ * The programs come from the {@link WorkloadGenerator} with a fixed
+ * seed, so runs on different versions of the code time the same work.
+ * What the programs print goes into a Blackhole, and their variables are
+ * returned, so the runs cannot be optimized away either.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 2 )
+public class StageBenchmark {
+
+    /** the program's length, in tokens */
+    @Param( { "10000", "100000" } )
+    public int size;
+
+    /** the number of levels of operators in each expression */
+    @Param( { "2", "5", "8" } )
+    public int depth;
+
+    private String source;
+    private List< String > tokens;
+    private ParseTree tree;
+    private List< Machine.Instruction > program;
+    private File assembly;
+
+    /**
+     * Make up the program, and build what each stage starts from.
+     * @throws IOException if the assembly language file cannot be written
+     */
+    @Setup( Level.Trial )
+    public void setUp() throws IOException {
+        tokens = new WorkloadGenerator( 42 ).tokens( size ).depth( depth )
+                                            .variables( 1000 )
+                                            .generate().tokens();
+        source = String.join( " ", tokens );
+        tree = new ParseTree( tokens );
+        program = tree.compile();
+        assembly = File.createTempFile( "perp", ".asm" );
+        List< String > lines = new ArrayList<>( program.size() );
+        for ( Machine.Instruction instr: program ) {
+            lines.add( instr.toString() );
+        }
+        Files.write( assembly.toPath(), lines );
+    }
+
+    /**
+     * Remove the assembly language file.
+     */
+    @TearDown( Level.Trial )
+    public void tearDown() {
+        assembly.delete();
+    }
+
+    /**
+     * @return the source text split into tokens, as PerpTest reads a file
+     */
+    @Benchmark
+    public List< String > tokenize() {
+        List< String > result = new ArrayList<>();
+        try ( Scanner in = new Scanner( source ) ) {
+            in.forEachRemaining( result::add );
+        }
+        return result;
+    }
+
+    /**
+     * @return the program parsed and simplified
+     */
+    @Benchmark
+    public ParseTree parse() {
+        return new ParseTree( tokens );
+    }
+
+    /**
+     * Run the program on the parse tree.
+     * @param bh where the program's output goes
+     * @return the program's variables
+     */
+    @Benchmark
+    public SymbolTable interpret( Blackhole bh ) {
+        return tree.interpret( new BlackholeSink( bh ) );
+    }
+
+    /**
+     * @return the program's linked machine code
+     */
+    @Benchmark
+    public List< Machine.Instruction > compile() {
+        return tree.compile();
+    }
+
+    /**
+     * @return the machine code read back from assembly language
+     */
+    @Benchmark
+    public List< Machine.Instruction > assemble() {
+        return InstructionReader.assemble( assembly.getPath() );
+    }
+
+    /**
+     * Run the machine code.
+     * @param bh where the program's output goes
+     * @return the program's variables
+     */
+    @Benchmark
+    public SymbolTable execute( Blackhole bh ) {
+        Machine machine = new Machine();
+        machine.setOutput( new BlackholeSink( bh ) );
+        machine.run( program );
+        return machine.getSymbolTable();
+    }
+
+    /**
+     * Program output that is consumed without being formatted or
+     * written anywhere.
+     */
+    private static final class BlackholeSink implements OutputSink {
+
+        private final Blackhole bh;
+
+        BlackholeSink( Blackhole bh ) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void print( CharSequence text ) {
+            bh.consume( text );
+        }
+
+        @Override
+        public void print( int value ) {
+            bh.consume( value );
+        }
+
+        @Override
+        public void print( CharSequence text, int width ) {
+            bh.consume( text );
+            bh.consume( width );
+        }
+
+        @Override
+        public void print( int value, int width ) {
+            bh.consume( value );
+            bh.consume( width );
+        }
+
+        @Override
+        public void newline() {}
+
+        @Override
+        public void flush() {}
+    }
+}
@@ -0,0 +1,281 @@
+package perp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An {@link OutputSink} that collects its output in a byte array and
+ * writes it to a channel only when the array is full or the sink is
+ * flushed. Integers are formatted straight into the array, so printing
+ * a value makes no String, and text is written as UTF-8. Lines end in
+ * '\n', as in {@link SymbolTable#dump()}.
+ *
+ * A BufferedSink is also an Appendable, so that text rendered for a
+ * StringBuilder or a stream, such as a program listing, can be written
+ * through it to a file or channel instead.
+ *
+ * A BufferedSink may be shared by threads; each call is atomic, and so
+ * is each {@link #println(String, int)} line.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class BufferedSink implements OutputSink, Appendable, Closeable {
+
+    /** how many bytes are collected before they are written */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final ThreadLocal< BufferedSink > STANDARD =
+            ThreadLocal.withInitial( () -> new BufferedSink(
+                    new StandardOutput(), DEFAULT_CAPACITY ) );
+
+    /** room for the longest int, -2147483648 */
+    private static final int MAX_DIGITS = 11;
+
+    private final WritableByteChannel channel;
+    private final byte[] buffer;
+    private final ByteBuffer pending;
+    private int size = 0;
+
+    /**
+     * Create a sink that writes to a channel, with a buffer of
+     * {@link #DEFAULT_CAPACITY} bytes.
+     * @param channel where the output goes
+     */
+    public BufferedSink( WritableByteChannel channel ) {
+        this( channel, DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Create a sink that writes to a channel.
+     * @param channel where the output goes
+     * @param capacity how many bytes to collect before writing them
+     */
+    public BufferedSink( WritableByteChannel channel, int capacity ) {
+        if ( capacity < MAX_DIGITS ) {
+            throw new IllegalArgumentException(
+                    "Sink capacity too small: " + capacity );
+        }
+        this.channel = channel;
+        this.buffer = new byte[ capacity ];
+        this.pending = ByteBuffer.wrap( buffer );
+    }
+
+    /**
+     * Create a sink that writes to a file, replacing what was there.
+     * @param file the file's path
+     * @return the sink; it should be closed when done with
+     * @throws IOException if the file cannot be opened
+     */
+    public static BufferedSink open( Path file ) throws IOException {
+        return new BufferedSink( FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING ) );
+    }
+
+    /**
+     * The sink that every engine uses unless given another. It writes
+     * to whatever System.out is when it is flushed, and is never closed.
+     * Each thread has its own, so programs running on different threads
+     * never hold each other's output.
+     * @return the calling thread's standard output sink
+     */
+    public static BufferedSink standardOutput() {
+        return STANDARD.get();
+    }
+
+    @Override
+    public synchronized void print( CharSequence text ) {
+        int length = text.length();
+        for ( int i = 0; i < length; ++i ) {
+            if ( text.charAt( i ) >= 0x80 ) {
+                write( text.toString().getBytes( StandardCharsets.UTF_8 ) );
+                return;
+            }
+        }
+        for ( int i = 0; i < length; ++i ) {
+            if ( size == buffer.length ) {
+                drain();
+            }
+            buffer[ size++ ] = (byte)text.charAt( i );
+        }
+    }
+
+    @Override
+    public synchronized void print( int value ) {
+        if ( size + MAX_DIGITS > buffer.length ) {
+            drain();
+        }
+        int end = size + OutputSink.digitCount( value );
+        int at = end;
+        // Work with the negative so that Integer.MIN_VALUE needs no case.
+        int rest = value < 0 ? value : -value;
+        do {
+            buffer[ --at ] = (byte)( '0' - rest % 10 );
+            rest /= 10;
+        } while ( rest != 0 );
+        if ( value < 0 ) {
+            buffer[ --at ] = '-';
+        }
+        size = end;
+    }
+
+    @Override
+    public synchronized void print( CharSequence text, int width ) {
+        pad( width - text.length() );
+        print( text );
+    }
+
+    @Override
+    public synchronized void print( int value, int width ) {
+        pad( width - OutputSink.digitCount( value ) );
+        print( value );
+    }
+
+    @Override
+    public synchronized void newline() {
+        if ( size == buffer.length ) {
+            drain();
+        }
+        buffer[ size++ ] = '\n';
+    }
+
+    @Override
+    public synchronized void println( String prefix, int value ) {
+        print( prefix );
+        print( value );
+        newline();
+    }
+
+    @Override
+    public BufferedSink append( CharSequence text ) {
+        print( text == null ? "null" : text );
+        return this;
+    }
+
+    @Override
+    public BufferedSink append( CharSequence text, int start, int end ) {
+        print( ( text == null ? "null" : text ).subSequence( start, end ) );
+        return this;
+    }
+
+    @Override
+    public synchronized BufferedSink append( char c ) {
+        if ( c >= 0x80 ) {
+            print( String.valueOf( c ) );
+        }
+        else {
+            if ( size == buffer.length ) {
+                drain();
+            }
+            buffer[ size++ ] = (byte)c;
+        }
+        return this;
+    }
+
+    /**
+     * Write everything collected so far to the channel.
+     * @throws UncheckedIOException if the channel cannot be written
+     */
+    @Override
+    public synchronized void flush() {
+        drain();
+    }
+
+    /**
+     * Flush the sink and close its channel. The standard output sink
+     * is only flushed.
+     * @throws IOException if the channel cannot be written or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        drain();
+        if ( !( channel instanceof StandardOutput ) ) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write spaces.
+     * @param count how many; nothing is written if this is not positive
+     */
+    private void pad( int count ) {
+        for ( int i = 0; i < count; ++i ) {
+            if ( size == buffer.length ) {
+                drain();
+            }
+            buffer[ size++ ] = ' ';
+        }
+    }
+
+    /**
+     * Write some bytes, going through the buffer.
+     * @param bytes the bytes
+     */
+    private void write( byte[] bytes ) {
+        int from = 0;
+        while ( from < bytes.length ) {
+            if ( size == buffer.length ) {
+                drain();
+            }
+            int count = Math.min( bytes.length - from, buffer.length - size );
+            System.arraycopy( bytes, from, buffer, size, count );
+            from += count;
+            size += count;
+        }
+    }
+
+    /**
+     * Write the buffer's contents to the channel and empty it.
+     */
+    private void drain() {
+        pending.clear().limit( size );
+        try {
+            while ( pending.hasRemaining() ) {
+                channel.write( pending );
+            }
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+        size = 0;
+    }
+
+    /**
+     * A channel to System.out, looked up at each write so that the
+     * standard sink follows System.setOut.
+     */
+    private static final class StandardOutput implements WritableByteChannel {
+        @Override
+        public int write( ByteBuffer source ) {
+            int count = source.remaining();
+            if ( source.hasArray() ) {
+                System.out.write( source.array(),
+                                  source.arrayOffset() + source.position(),
+                                  count );
+                source.position( source.limit() );
+            }
+            else {
+                byte[] bytes = new byte[ count ];
+                source.get( bytes );
+                System.out.write( bytes, 0, count );
+            }
+            System.out.flush();
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+}
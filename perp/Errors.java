@@ -7,17 +7,17 @@ package perp;
  */
 public class Errors {
 
+    /** the exit status of a program stopped by a Perp error */
+    public static final int EXIT_STATUS = 2;
+
     /**
-     * Report an error and stop the program. All output goes to standard error.
+     * Report an error. All output goes to standard error, after what
+     * the program has printed so far on standard output.
      *
-     * @param msg The message to be printed first
-     * @param info if not null, an additional value to be printed after a colon
+     * @param error the error; its message is the text of the report
      */
-    public static void error( String msg, Object info ) {
-        System.err.print( msg );
-        if ( info != null ) {
-            System.err.print( ": " + info );
-        }
-        System.exit( 2 );
+    public static void report( PerpException error ) {
+        OutputSink.standard().flush();
+        System.err.print( error.getMessage() );
     }
 }
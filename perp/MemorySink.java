@@ -0,0 +1,44 @@
+package perp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link BufferedSink} that keeps its output in memory, so that what a
+ * program prints can be looked at afterwards.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class MemorySink extends BufferedSink {
+
+    private final ByteArrayOutputStream bytes;
+
+    /**
+     * Create an empty sink.
+     */
+    public MemorySink() {
+        this( new ByteArrayOutputStream() );
+    }
+
+    private MemorySink( ByteArrayOutputStream bytes ) {
+        super( Channels.newChannel( bytes ) );
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return everything written to this sink so far, as text
+     */
+    public synchronized String contents() {
+        flush();
+        return new String( bytes.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Throw away everything written to this sink so far.
+     */
+    public synchronized void clear() {
+        flush();
+        bytes.reset();
+    }
+}
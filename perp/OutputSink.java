@@ -0,0 +1,86 @@
+package perp;
+
+/**
+ * Where a running Perp program's output goes: the values it prints and
+ * the symbol table dump at the end. Every engine writes through one of
+ * these instead of System.out, so output can be buffered, sent to a
+ * file, or kept in memory.
+ *
+ * Output may be held back until {@link #flush()} is called. An engine
+ * flushes its sink when a run ends, so that anything it prints itself
+ * afterwards on System.out comes out in the right order.
+ *
+ * @author Phuvit Kittisapkajon
+ * @see BufferedSink
+ * @see MemorySink
+ */
+public interface OutputSink {
+
+    /**
+     * Write some text.
+     * @param text the characters to write
+     */
+    void print( CharSequence text );
+
+    /**
+     * Write an integer in decimal.
+     * @param value the integer
+     */
+    void print( int value );
+
+    /**
+     * Write some text, right-aligned in a field.
+     * @param text the characters to write
+     * @param width the field width; text that is longer is not cut
+     */
+    void print( CharSequence text, int width );
+
+    /**
+     * Write an integer in decimal, right-aligned in a field.
+     * @param value the integer
+     * @param width the field width; a number that is longer is not cut
+     */
+    void print( int value, int width );
+
+    /**
+     * End the current line.
+     */
+    void newline();
+
+    /**
+     * Write a line made of a prefix and a value, as PRINT does.
+     * @param prefix the text before the value, such as "=== "
+     * @param value the value
+     */
+    default void println( String prefix, int value ) {
+        print( prefix );
+        print( value );
+        newline();
+    }
+
+    /**
+     * Send everything written so far on to its destination.
+     */
+    void flush();
+
+    /**
+     * @param value an integer
+     * @return how many characters it takes in decimal, sign included,
+     *         as {@link #print(int)} writes it
+     */
+    static int digitCount( int value ) {
+        int count = value < 0 ? 2 : 1;
+        for ( int rest = value / 10; rest != 0; rest /= 10 ) {
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the calling thread's sink for standard output; see
+     *         {@link BufferedSink#standardOutput()}
+     */
+    static OutputSink standard() {
+        return BufferedSink.standardOutput();
+    }
+}
@@ -0,0 +1,20 @@
+package perp;
+
+/**
+ * An operation a running Perp program cannot do: division by zero, or
+ * the square root of a negative number.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class PerpArithmeticException extends PerpException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param msg what went wrong
+     * @param info the operands involved, or null
+     */
+    public PerpArithmeticException( String msg, Object info ) {
+        super( msg, info );
+    }
+}
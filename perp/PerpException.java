@@ -0,0 +1,43 @@
+package perp;
+
+/**
+ * An error in a Perp program, found while it is being parsed or run.
+ * Engines throw one of the subclasses and leave it to the program
+ * running them to decide what to do; {@link Errors#report(PerpException)}
+ * shows it the way Perp errors have always been shown.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public abstract class PerpException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object info;
+
+    /**
+     * @param msg what went wrong
+     * @param info if not null, the value involved, shown after a colon
+     */
+    protected PerpException( String msg, Object info ) {
+        super( info == null ? msg : msg + ": " + info );
+        this.info = info;
+    }
+
+    /**
+     * @param msg what went wrong
+     * @param info if not null, the value involved, shown after a colon
+     * @param cause the exception that revealed the error
+     */
+    protected PerpException( String msg, Object info, Throwable cause ) {
+        this( msg, info );
+        initCause( cause );
+    }
+
+    /**
+     * @return the value involved in the error, or null
+     */
+    public Object getInfo() {
+        return info;
+    }
+}
@@ -0,0 +1,21 @@
+package perp;
+
+/**
+ * A valid Perp program that an engine cannot run because it goes past
+ * one of that engine's limits, such as how deeply its expressions may
+ * be nested. Other engines may still run it.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class PerpLimitException extends PerpException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param msg what limit the program goes past
+     * @param info the program's value for that limit, or null
+     */
+    public PerpLimitException( String msg, Object info ) {
+        super( msg, info );
+    }
+}
@@ -0,0 +1,31 @@
+package perp;
+
+/**
+ * A Perp program that cannot be parsed: a token that starts neither a
+ * statement nor an expression, an assignment with no variable, an
+ * expression that is missing an operand, or a number too large for an
+ * int.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class PerpParseException extends PerpException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param msg what went wrong
+     * @param token the token at fault
+     */
+    public PerpParseException( String msg, String token ) {
+        super( msg, token );
+    }
+
+    /**
+     * @param msg what went wrong
+     * @param token the token at fault
+     * @param cause the exception that revealed the error
+     */
+    public PerpParseException( String msg, String token, Throwable cause ) {
+        super( msg, token, cause );
+    }
+}
@@ -1,19 +1,49 @@
 package perp;
 
-import perp.Errors;
-
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * "Memory" for the Perp machine. A dictionary of variable names
  * and their current values.
  *
+ * Names and values are kept in parallel arrays, a String[] and an
+ * int[], in the order the variables were first assigned, so a value is
+ * never boxed and {@link #dump()} lists the variables in that order
+ * without making any objects. The names are found through an open
+ * addressing hash index of positions in those arrays, probed linearly
+ * and kept at most half full, so a lookup is a single probe sequence.
+ * The parser interns identifiers, so a name is usually matched by
+ * reference; equal names that are not the same String are still found.
+ *
  * @author James Heliotis
+ * @author Phuvit Kittisapkajon
  */
 public class SymbolTable {
 
-    private Map< String, Integer > table = new HashMap<>();
+    /** how many variables fit before the arrays first grow */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** variable names, in the order they were first assigned */
+    private String[] names = new String[ INITIAL_CAPACITY ];
+
+    /** the hash code of each name, to skip comparisons that must fail */
+    private int[] hashes = new int[ INITIAL_CAPACITY ];
+
+    /** each variable's current value */
+    private int[] values = new int[ INITIAL_CAPACITY ];
+
+    /** how many variables the table holds */
+    private int size = 0;
+
+    /**
+     * the hash index: each entry is 1 + a position in names, or 0 if
+     * the entry is free; its length is a power of two at least twice
+     * the number of variables
+     */
+    private int[] index = new int[ 2 * INITIAL_CAPACITY ];
+
+    /** where the running program's output goes */
+    private final OutputSink output;
 
     /**
      * Create an empty symbol table. A new instance of
@@ -21,7 +51,25 @@ public class SymbolTable {
      * is about to start, be it interpretation of the tree
      * or execution of machine instructions.
      */
-    public SymbolTable() {}
+    public SymbolTable() {
+        this( OutputSink.standard() );
+    }
+
+    /**
+     * Create an empty symbol table for a program whose output goes
+     * somewhere other than standard output.
+     * @param output where the program's prints and the dump go
+     */
+    public SymbolTable( OutputSink output ) {
+        this.output = output;
+    }
+
+    /**
+     * @return where the program's output goes
+     */
+    public OutputSink output() {
+        return output;
+    }
 
     /**
      * See if a variable is already in the table.
@@ -29,7 +77,7 @@ public class SymbolTable {
      * @return true iff ident is already in the table
      */
     public boolean exists( String ident ) {
-        return table.containsKey( ident );
+        return find( ident, spread( ident.hashCode() ) ) >= 0;
     }
 
     /**
@@ -37,12 +85,14 @@ public class SymbolTable {
      * @rit.pre exists(ident)
      * @return the variable's value
      * @param name
+     * @throws UnknownVariableException if the variable is not in the table
      */
     public int get(String name) {
-        if ( !table.containsKey( name ) ) {
-            Errors.error( "Non-existent variable", name );
+        int position = find( name, spread( name.hashCode() ) );
+        if ( position < 0 ) {
+            throw new UnknownVariableException( name );
         }
-        return table.get( name );
+        return values[ position ];
     }
 
     /**
@@ -51,16 +101,108 @@ public class SymbolTable {
      * @param value the variable's new value
      */
     public void put( String ident, int value ) {
-        table.put( ident, value );
+        int hash = spread( ident.hashCode() );
+        int position = find( ident, hash );
+        if ( position >= 0 ) {
+            values[ position ] = value;
+            return;
+        }
+        if ( size == names.length ) {
+            grow();
+        }
+        names[ size ] = ident;
+        hashes[ size ] = hash;
+        values[ size ] = value;
+        ++size;
+        insert( size - 1 );
+    }
+
+    /**
+     * @return how many variables the table holds
+     */
+    public int size() {
+        return size;
     }
 
     /**
-     * Show on standard output the values of all the variables in the table.
+     * Show on this table's output the values of all the variables in
+     * the table, and flush it.
      */
     public void dump() {
-        System.out.println( "Symbol Table Contents\n=====================\n" );
-        for ( String ident: table.keySet() ) {
-            System.out.printf( "%12s : %11d\n", ident, table.get( ident ) );
+        dump( output );
+        output.flush();
+    }
+
+    /**
+     * Write the values of all the variables in the table to a sink,
+     * in the order they were first assigned. The sink is not flushed.
+     * @param out where the values are written
+     */
+    public void dump( OutputSink out ) {
+        out.print( "Symbol Table Contents\n=====================\n\n" );
+        for ( int i = 0; i < size; ++i ) {
+            out.print( names[ i ], 12 );
+            out.print( " : " );
+            out.print( values[ i ], 11 );
+            out.newline();
+        }
+    }
+
+    /**
+     * Look a name up in the hash index.
+     * @param name the name
+     * @param hash the name's spread hash code
+     * @return the name's position in names, or -1 if it is not there
+     */
+    private int find( String name, int hash ) {
+        int mask = index.length - 1;
+        for ( int at = hash & mask; index[ at ] != 0; at = ( at + 1 ) & mask ) {
+            int position = index[ at ] - 1;
+            String known = names[ position ];
+            if ( known == name ||
+                 ( hashes[ position ] == hash && known.equals( name ) ) ) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Enter a name in the hash index.
+     * @param position where the name is in names
+     */
+    private void insert( int position ) {
+        int mask = index.length - 1;
+        int at = hashes[ position ] & mask;
+        while ( index[ at ] != 0 ) {
+            at = ( at + 1 ) & mask;
+        }
+        index[ at ] = position + 1;
+    }
+
+    /**
+     * Double the room for variables, and rebuild the hash index at
+     * twice its size.
+     */
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf( names, capacity );
+        hashes = Arrays.copyOf( hashes, capacity );
+        values = Arrays.copyOf( values, capacity );
+        index = new int[ 2 * capacity ];
+        for ( int i = 0; i < size; ++i ) {
+            insert( i );
         }
     }
+
+    /**
+     * Mix the high bits of a hash code into the low ones, which are
+     * the ones the index uses.
+     * @param hash a hash code
+     * @return the spread hash code
+     */
+    private static int spread( int hash ) {
+        hash *= 0x9E3779B9;
+        return hash ^ ( hash >>> 16 );
+    }
 }
@@ -0,0 +1,26 @@
+package perp;
+
+/**
+ * A running Perp program's use of a variable that has not been
+ * assigned.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class UnknownVariableException extends PerpException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param name the variable's name
+     */
+    public UnknownVariableException( String name ) {
+        super( "Non-existent variable", name );
+    }
+
+    /**
+     * @return the variable's name
+     */
+    public String getName() {
+        return (String)getInfo();
+    }
+}
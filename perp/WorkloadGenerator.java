@@ -0,0 +1,453 @@
+package perp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generator of made-up Perp programs for scaling tests and benchmarks.
+ * The same seed and settings always give the same program.
+ *
+ * The generator works out the value of every expression as it makes it
+ * up, using the same int arithmetic as the interpreter, so it knows the
+ * program's output and final variable values, and it never produces a
+ * division by zero or the square root of a negative number. When the
+ * operator it picks would fail on the operands it has made, it uses a
+ * safe one instead: addition in place of division, negation in place
+ * of square root. Only variables that have already been assigned are
+ * read, and the variables are first assigned in order, v0 up, so a long
+ * enough program uses the whole pool.
+ *
+ * Each program comes with the matching Machine assembly language, one
+ * instruction per line, ready for {@link perp.machine.InstructionReader}.
+ *
+ * The settings are made with chained calls, e.g.
+ * <pre>
+ *     new WorkloadGenerator( 42 ).statements( 1000 ).depth( 6 )
+ *                                .weight( "//", 1 ).generate()
+ * </pre>
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public class WorkloadGenerator {
+
+    /** the operator tokens, in the order of {@link #weights} */
+    private static final String[] OPERATORS = { "+", "-", "*", "//", "_", "#" };
+
+    /** the Machine mnemonic for each operator */
+    private static final String[] MNEMONICS =
+            { "ADD", "SUB", "MUL", "DIV", "NEG", "SQRT" };
+
+    private static final int ADD = 0;
+    private static final int DIV = 3;
+    private static final int NEG = 4;
+    private static final int SQRT = 5;
+
+    /** how many operators take one operand, at the end of OPERATORS */
+    private static final int UNARY_FROM = NEG;
+
+    private final long seed;
+    private int statements = 100;
+    private int tokens = 0;
+    private int depth = 3;
+    private int variables = 100;
+    private double printChance = 0.0;
+    private final int[] weights = { 1, 1, 1, 0, 0, 0 };
+
+    /**
+     * A generated program and what it does.
+     */
+    public static final class Workload {
+        private final List< String > tokens;
+        private final List< String > assembly;
+        private final List< Integer > printed;
+        private final SymbolTable finalValues;
+        private final List< String > source;
+
+        private Workload( List< String > tokens, List< String > source,
+                          List< String > assembly, List< Integer > printed,
+                          SymbolTable finalValues ) {
+            this.tokens = tokens;
+            this.source = source;
+            this.assembly = assembly;
+            this.printed = printed;
+            this.finalValues = finalValues;
+        }
+
+        /**
+         * @return the program's tokens
+         */
+        public List< String > tokens() {
+            return Collections.unmodifiableList( tokens );
+        }
+
+        /**
+         * @return the Machine assembly language for the program,
+         *         one instruction per element
+         */
+        public List< String > assembly() {
+            return Collections.unmodifiableList( assembly );
+        }
+
+        /**
+         * @return the values the program prints, in order
+         */
+        public List< Integer > printed() {
+            return Collections.unmodifiableList( printed );
+        }
+
+        /**
+         * @return the variables the program assigns, with their final values
+         */
+        public SymbolTable finalValues() {
+            return finalValues;
+        }
+
+        /**
+         * Write the program as source text, one statement per line.
+         * @param file where to write it
+         * @throws IOException if the file cannot be written
+         */
+        public void writeSource( Path file ) throws IOException {
+            Files.write( file, source, StandardCharsets.UTF_8 );
+        }
+
+        /**
+         * Write the program as assembly language, one instruction per line.
+         * @param file where to write it
+         * @throws IOException if the file cannot be written
+         */
+        public void writeAssembly( Path file ) throws IOException {
+            Files.write( file, assembly, StandardCharsets.UTF_8 );
+        }
+    }
+
+    /**
+     * Create a generator with the default settings: 100 statements of
+     * depth 3 over 100 variables, using + - and *, with no prints.
+     * @param seed random number seed
+     */
+    public WorkloadGenerator( long seed ) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param count how many statements to generate
+     * @return this generator
+     */
+    public WorkloadGenerator statements( int count ) {
+        this.statements = count;
+        this.tokens = 0;
+        return this;
+    }
+
+    /**
+     * Generate statements until the program has at least this many tokens,
+     * instead of a fixed number of statements.
+     * @param count how many tokens are wanted
+     * @return this generator
+     */
+    public WorkloadGenerator tokens( int count ) {
+        this.tokens = count;
+        return this;
+    }
+
+    /**
+     * @param levels how many levels of operators each expression has
+     * @return this generator
+     */
+    public WorkloadGenerator depth( int levels ) {
+        if ( levels < 0 ) {
+            throw new IllegalArgumentException( "Negative depth " + levels );
+        }
+        this.depth = levels;
+        return this;
+    }
+
+    /**
+     * @param count how many different variables the program uses
+     * @return this generator
+     */
+    public WorkloadGenerator variables( int count ) {
+        if ( count < 1 ) {
+            throw new IllegalArgumentException( "Need at least one variable" );
+        }
+        this.variables = count;
+        return this;
+    }
+
+    /**
+     * @param chance the probability, from 0 to 1, that a statement is a
+     *               print rather than an assignment
+     * @return this generator
+     */
+    public WorkloadGenerator printChance( double chance ) {
+        this.printChance = chance;
+        return this;
+    }
+
+    /**
+     * Set how often an operator is chosen, relative to the others.
+     * @param operator one of + - * // _ #
+     * @param weight 0 to leave the operator out
+     * @return this generator
+     * @throws IllegalArgumentException if operator is not a Perp operator
+     */
+    public WorkloadGenerator weight( String operator, int weight ) {
+        int index = Arrays.asList( OPERATORS ).indexOf( operator );
+        if ( index < 0 || weight < 0 ) {
+            throw new IllegalArgumentException(
+                    "Bad operator weight " + operator + ":" + weight );
+        }
+        weights[ index ] = weight;
+        return this;
+    }
+
+    /**
+     * Set every operator's weight from text such as "+:3,-:1,//:1".
+     * Operators not mentioned get weight 0.
+     * @param mix the operator weights
+     * @return this generator
+     */
+    public WorkloadGenerator operatorMix( String mix ) {
+        Arrays.fill( weights, 0 );
+        for ( String entry: mix.split( "," ) ) {
+            int colon = entry.lastIndexOf( ':' );
+            weight( entry.substring( 0, colon ),
+                    Integer.parseInt( entry.substring( colon + 1 ) ) );
+        }
+        return this;
+    }
+
+    /**
+     * Make up a program with the current settings.
+     * @return the program
+     * @throws IllegalArgumentException if every operator has weight 0
+     *         and the depth is not 0
+     */
+    public Workload generate() {
+        int total = 0;
+        for ( int weight: weights ) {
+            total += weight;
+        }
+        if ( total == 0 && depth > 0 ) {
+            throw new IllegalArgumentException( "No operators to use" );
+        }
+        Run run = new Run( new Random( seed ), total );
+        int count = 0;
+        while ( tokens > 0 ? run.tokens.size() < tokens : count < statements ) {
+            run.statement();
+            ++count;
+        }
+        SymbolTable finalValues = new SymbolTable();
+        for ( int v = 0; v < variables; ++v ) {
+            if ( run.assigned[ v ] ) {
+                finalValues.put( "v" + v, run.values[ v ] );
+            }
+        }
+        return new Workload( run.tokens, run.source, run.assembly,
+                             run.printed, finalValues );
+    }
+
+    /**
+     * The state of one generation: the program so far and the simulated
+     * values of its variables.
+     */
+    private final class Run {
+        private final Random rand;
+        private final int totalWeight;
+        private final int[] values = new int[ variables ];
+        private final boolean[] assigned = new boolean[ variables ];
+        private int assignedCount = 0;
+        private final List< String > tokens = new ArrayList<>();
+        private final List< String > source = new ArrayList<>();
+        private final List< String > assembly = new ArrayList<>();
+        private final List< Integer > printed = new ArrayList<>();
+
+        Run( Random rand, int totalWeight ) {
+            this.rand = rand;
+            this.totalWeight = totalWeight;
+        }
+
+        /**
+         * Add one statement to the program.
+         */
+        void statement() {
+            List< String > exprTokens = new ArrayList<>();
+            int value = expression( depth, exprTokens );
+            int start = tokens.size();
+            if ( assignedCount > 0 && rand.nextDouble() < printChance ) {
+                tokens.add( "@" );
+                tokens.addAll( exprTokens );
+                assembly.add( "PRINT" );
+                printed.add( value );
+            }
+            else {
+                int target = assignedCount < variables ?
+                             assignedCount : rand.nextInt( variables );
+                tokens.add( ":=" );
+                tokens.add( "v" + target );
+                tokens.addAll( exprTokens );
+                assembly.add( "STORE\tv" + target );
+                if ( !assigned[ target ] ) {
+                    assigned[ target ] = true;
+                    ++assignedCount;
+                }
+                values[ target ] = value;
+            }
+            source.add( String.join( " ", tokens.subList( start,
+                                                          tokens.size() ) ) );
+        }
+
+        /**
+         * Make up an expression. Its tokens are added to out, and its
+         * instructions, which come in postfix order, to the assembly.
+         * @param levels how many levels of operators it has
+         * @param out where its tokens go
+         * @return its value
+         */
+        private int expression( int levels, List< String > out ) {
+            if ( levels == 0 ) {
+                if ( assignedCount > 0 && rand.nextBoolean() ) {
+                    // The first assignedCount variables are the assigned ones
+                    // until the whole pool has been assigned.
+                    int v = rand.nextInt( assignedCount );
+                    out.add( "v" + v );
+                    assembly.add( "LOAD\tv" + v );
+                    return values[ v ];
+                }
+                int c = rand.nextInt( 100 );
+                out.add( Integer.toString( c ) );
+                assembly.add( "PUSH\t" + c );
+                return c;
+            }
+            int op = pickOperator();
+            int at = out.size();
+            out.add( OPERATORS[ op ] );
+            if ( op >= UNARY_FROM ) {
+                int operand = expression( levels - 1, out );
+                if ( op == SQRT && operand < 0 ) {
+                    op = NEG;
+                    out.set( at, OPERATORS[ op ] );
+                }
+                assembly.add( MNEMONICS[ op ] );
+                return op == NEG ? -operand : (int)Math.sqrt( operand );
+            }
+            boolean deepLeft = rand.nextBoolean();
+            int left = expression( deepLeft ? levels - 1 :
+                                   rand.nextInt( levels ), out );
+            int right = expression( deepLeft ? rand.nextInt( levels ) :
+                                    levels - 1, out );
+            if ( op == DIV && right == 0 ) {
+                op = ADD;
+                out.set( at, OPERATORS[ op ] );
+            }
+            assembly.add( MNEMONICS[ op ] );
+            switch ( op ) {
+                case 0: return left + right;
+                case 1: return left - right;
+                case 2: return left * right;
+                default: return left / right;
+            }
+        }
+
+        /**
+         * @return the index of an operator, chosen by weight
+         */
+        private int pickOperator() {
+            int pick = rand.nextInt( totalWeight );
+            int op = 0;
+            while ( pick >= weights[ op ] ) {
+                pick -= weights[ op ];
+                ++op;
+            }
+            return op;
+        }
+    }
+
+    /**
+     * Generate a program and write it to files.
+     * @param args options, then the name of the source file to write and,
+     *             optionally, of the assembly file to write. The options
+     *             are -seed, -statements, -tokens, -depth, -variables,
+     *             -print (a probability) and -ops (a mix such as
+     *             "+:3,-:1,*:2,//:1,_:1,#:1"), each followed by its value.
+     */
+    public static void main( String[] args ) {
+        long seed = 1;
+        List< String[] > settings = new ArrayList<>();
+        int first = 0;
+        while ( first + 1 < args.length && args[ first ].startsWith( "-" ) ) {
+            if ( args[ first ].equals( "-seed" ) ) {
+                seed = Long.parseLong( args[ first + 1 ] );
+            }
+            else {
+                settings.add( new String[]{ args[ first ], args[ first + 1 ] } );
+            }
+            first += 2;
+        }
+        if ( first == args.length || args.length - first > 2 ) {
+            usage();
+        }
+        WorkloadGenerator generator = new WorkloadGenerator( seed );
+        try {
+            for ( String[] setting: settings ) {
+                String value = setting[ 1 ];
+                switch ( setting[ 0 ] ) {
+                    case "-statements":
+                        generator.statements( Integer.parseInt( value ) );
+                        break;
+                    case "-tokens":
+                        generator.tokens( Integer.parseInt( value ) );
+                        break;
+                    case "-depth":
+                        generator.depth( Integer.parseInt( value ) );
+                        break;
+                    case "-variables":
+                        generator.variables( Integer.parseInt( value ) );
+                        break;
+                    case "-print":
+                        generator.printChance( Double.parseDouble( value ) );
+                        break;
+                    case "-ops":
+                        generator.operatorMix( value );
+                        break;
+                    default:
+                        usage();
+                }
+            }
+        }
+        catch ( IllegalArgumentException iae ) {
+            System.err.println( iae.getMessage() );
+            usage();
+        }
+        Workload workload = generator.generate();
+        try {
+            workload.writeSource( Paths.get( args[ first ] ) );
+            if ( first + 1 < args.length ) {
+                workload.writeAssembly( Paths.get( args[ first + 1 ] ) );
+            }
+        }
+        catch ( IOException ioe ) {
+            System.err.println( "Could not write workload: " + ioe );
+            System.exit( 1 );
+        }
+    }
+
+    private static void usage() {
+        System.err.println(
+                "Usage: java perp.WorkloadGenerator [-seed n] " +
+                "[-statements n | -tokens n] [-depth n] [-variables n]\n" +
+                "           [-print p] [-ops +:w,-:w,*:w,//:w,_:w,#:w] " +
+                "source-file [assembly-file]" );
+        System.exit( 1 );
+    }
+}
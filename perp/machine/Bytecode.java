@@ -0,0 +1,433 @@
+package perp.machine;
+
+import perp.machine.stu.Machine;
+import perp.machine.stu.Program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Machine program packed into an array of ints. Each instruction is
+ * one word holding the opcode in its low 8 bits and its operand, if it
+ * has one, in the remaining 24 bits. A constant too big for 24 bits is
+ * pushed with PUSH_WIDE, whose operand is the whole word that follows.
+ * The superinstructions that name two variables, LOAD_LOAD_ADD and MOVE,
+ * hold the second slot in the word that follows; ADD_CONST and MUL_CONST
+ * with a constant too big for 24 bits are packed as PUSH_WIDE and the
+ * plain operation.
+ *
+ * Variables are addressed by slot, as in a linked {@link Program}.
+ * The maximum stack depth is worked out while packing, so whoever runs
+ * the code can allocate the value stack once.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public final class Bytecode {
+
+    /** push the (signed) operand */
+    public static final int PUSH = 0;
+    /** push the word following this one */
+    public static final int PUSH_WIDE = 1;
+    /** push the variable in the operand's slot */
+    public static final int LOAD = 2;
+    /** pop into the variable in the operand's slot */
+    public static final int STORE = 3;
+    public static final int ADD = 4;
+    public static final int SUB = 5;
+    public static final int MUL = 6;
+    public static final int DIV = 7;
+    public static final int NEG = 8;
+    public static final int SQRT = 9;
+    public static final int PRINT = 10;
+    /** push a copy of the top value */
+    public static final int DUP = 11;
+    /** push the sum of the operand's slot and the slot in the next word */
+    public static final int LOAD_LOAD_ADD = 12;
+    /** add the (signed) operand to the top value */
+    public static final int ADD_CONST = 13;
+    /** multiply the top value by the (signed) operand */
+    public static final int MUL_CONST = 14;
+    /** copy the operand's slot into the slot in the next word */
+    public static final int MOVE = 15;
+
+    /** how far the operand is shifted left of the opcode */
+    static final int OP_BITS = 8;
+
+    /** the bits of a word that hold the opcode */
+    static final int OP_MASK = 0xFF;
+
+    /** how many variable slots an operand can address */
+    static final int MAX_SLOTS = 1 << ( 32 - OP_BITS );
+
+    private final int[] code;
+    private final int instructionCount;
+    private final String[] names;
+    private final int maxStack;
+
+    /**
+     * Create a Bytecode object from its parts. No checking is done.
+     * @param code the packed instruction words
+     * @param instructionCount how many instructions the words hold
+     * @param names the variable names, indexed by slot
+     * @param maxStack the deepest the value stack gets
+     */
+    Bytecode( int[] code, int instructionCount,
+              String[] names, int maxStack ) {
+        this.code = code;
+        this.instructionCount = instructionCount;
+        this.names = names;
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * Pack a list of Machine instructions. The list is linked first
+     * if it is not already a {@link Program}.
+     * @param program the instructions, in execution order
+     * @return the packed form of the program
+     * @throws IllegalArgumentException if the program contains an
+     *         instruction that has no bytecode form
+     */
+    public static Bytecode compile( List< Machine.Instruction > program ) {
+        Program linked = Program.link( program );
+        if ( linked.slotCount() > MAX_SLOTS ) {
+            throw new IllegalArgumentException(
+                    "Too many variables for bytecode: " + linked.slotCount() );
+        }
+        int[] code = new int[ linked.size() ];
+        int pc = 0;
+        int instructionCount = linked.size();
+        int depth = 0;
+        int maxStack = 0;
+        for ( Machine.Instruction instr: linked ) {
+            if ( pc + 2 > code.length ) {
+                code = Arrays.copyOf( code, code.length * 2 + 2 );
+            }
+            int effect;
+            if ( instr instanceof Machine.PushConst ) {
+                int value = ( (Machine.PushConst)instr ).getConstant();
+                if ( fitsOperand( value ) ) {
+                    code[ pc++ ] = word( PUSH, value );
+                }
+                else {
+                    code[ pc++ ] = PUSH_WIDE;
+                    code[ pc++ ] = value;
+                }
+                effect = 1;
+            }
+            else if ( instr instanceof Machine.Load ) {
+                code[ pc++ ] = word( LOAD, ( (Machine.Load)instr ).getSlot() );
+                effect = 1;
+            }
+            else if ( instr instanceof Machine.Store ) {
+                code[ pc++ ] = word( STORE, ( (Machine.Store)instr ).getSlot() );
+                effect = -1;
+            }
+            else if ( instr instanceof Machine.Add ) {
+                code[ pc++ ] = ADD;
+                effect = -1;
+            }
+            else if ( instr instanceof Machine.Subtract ) {
+                code[ pc++ ] = SUB;
+                effect = -1;
+            }
+            else if ( instr instanceof Machine.Multiply ) {
+                code[ pc++ ] = MUL;
+                effect = -1;
+            }
+            else if ( instr instanceof Machine.Divide ) {
+                code[ pc++ ] = DIV;
+                effect = -1;
+            }
+            else if ( instr instanceof Machine.Negate ) {
+                code[ pc++ ] = NEG;
+                effect = 0;
+            }
+            else if ( instr instanceof Machine.SquareRoot ) {
+                code[ pc++ ] = SQRT;
+                effect = 0;
+            }
+            else if ( instr instanceof Machine.Print ) {
+                code[ pc++ ] = PRINT;
+                effect = -1;
+            }
+            else if ( instr instanceof Machine.Duplicate ) {
+                code[ pc++ ] = DUP;
+                effect = 1;
+            }
+            else if ( instr instanceof Machine.LoadLoadAdd ) {
+                Machine.LoadLoadAdd lla = (Machine.LoadLoadAdd)instr;
+                code[ pc++ ] = word( LOAD_LOAD_ADD, lla.getLeftSlot() );
+                code[ pc++ ] = lla.getRightSlot();
+                effect = 1;
+            }
+            else if ( instr instanceof Machine.Move ) {
+                Machine.Move move = (Machine.Move)instr;
+                code[ pc++ ] = word( MOVE, move.getFromSlot() );
+                code[ pc++ ] = move.getToSlot();
+                effect = 0;
+            }
+            else if ( instr instanceof Machine.AddConst ||
+                      instr instanceof Machine.MulConst ) {
+                boolean add = instr instanceof Machine.AddConst;
+                int value = add ? ( (Machine.AddConst)instr ).getConstant() :
+                                  ( (Machine.MulConst)instr ).getConstant();
+                if ( fitsOperand( value ) ) {
+                    code[ pc++ ] = word( add ? ADD_CONST : MUL_CONST, value );
+                    effect = 0;
+                }
+                else {
+                    if ( pc + 3 > code.length ) {
+                        code = Arrays.copyOf( code, code.length * 2 + 3 );
+                    }
+                    code[ pc++ ] = PUSH_WIDE;
+                    code[ pc++ ] = value;
+                    code[ pc++ ] = add ? ADD : MUL;
+                    ++instructionCount;
+                    maxStack = Math.max( maxStack, depth + 1 );
+                    effect = 0;
+                }
+            }
+            else {
+                throw new IllegalArgumentException(
+                        "No bytecode for instruction " + instr );
+            }
+            depth += effect;
+            maxStack = Math.max( maxStack, depth );
+        }
+        String[] names = new String[ linked.slotCount() ];
+        for ( int slot = 0; slot < names.length; ++slot ) {
+            names[ slot ] = linked.nameOf( slot );
+        }
+        return new Bytecode( Arrays.copyOf( code, pc ), instructionCount,
+                             names, maxStack );
+    }
+
+    /**
+     * Check packed code that came from outside this program, such as
+     * from an object file, and work out its instruction count and
+     * maximum stack depth.
+     * @param code the packed instruction words
+     * @param names the variable names, indexed by slot
+     * @return the checked code
+     * @throws IllegalArgumentException if a word has a bad opcode or
+     *         slot, or an instruction needs more values than the stack
+     *         holds at that point
+     */
+    static Bytecode verify( int[] code, String[] names ) {
+        int instructionCount = 0;
+        int depth = 0;
+        int maxStack = 0;
+        int pc = 0;
+        while ( pc < code.length ) {
+            int word = code[ pc++ ];
+            // how many values the instruction takes off the stack, and
+            // how the stack's depth changes
+            int needs = 0;
+            int effect;
+            switch ( word & OP_MASK ) {
+                case PUSH:
+                    effect = 1;
+                    break;
+                case PUSH_WIDE:
+                    if ( pc == code.length ) {
+                        throw new IllegalArgumentException(
+                                "PUSH_WIDE without a constant at word " +
+                                ( pc - 1 ) );
+                    }
+                    ++pc;
+                    effect = 1;
+                    break;
+                case LOAD:
+                case STORE:
+                    if ( slot( word ) >= names.length ) {
+                        throw new IllegalArgumentException(
+                                "Bad slot " + slot( word ) +
+                                " at word " + ( pc - 1 ) );
+                    }
+                    if ( ( word & OP_MASK ) == LOAD ) {
+                        effect = 1;
+                    }
+                    else {
+                        needs = 1;
+                        effect = -1;
+                    }
+                    break;
+                case ADD: case SUB: case MUL: case DIV:
+                    needs = 2;
+                    effect = -1;
+                    break;
+                case PRINT:
+                    needs = 1;
+                    effect = -1;
+                    break;
+                case NEG: case SQRT:
+                case ADD_CONST: case MUL_CONST:
+                    needs = 1;
+                    effect = 0;
+                    break;
+                case DUP:
+                    needs = 1;
+                    effect = 1;
+                    break;
+                case LOAD_LOAD_ADD:
+                case MOVE:
+                    if ( pc == code.length ) {
+                        throw new IllegalArgumentException(
+                                "Missing second slot at word " + ( pc - 1 ) );
+                    }
+                    if ( slot( word ) >= names.length ||
+                         code[ pc ] < 0 || code[ pc ] >= names.length ) {
+                        throw new IllegalArgumentException(
+                                "Bad slot at word " + ( pc - 1 ) );
+                    }
+                    ++pc;
+                    effect = ( word & OP_MASK ) == MOVE ? 0 : 1;
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Bad opcode " + ( word & OP_MASK ) +
+                            " at word " + ( pc - 1 ) );
+            }
+            if ( depth < needs ) {
+                throw new IllegalArgumentException(
+                        "Stack underflow at word " + ( pc - 1 ) );
+            }
+            depth += effect;
+            maxStack = Math.max( maxStack, depth );
+            ++instructionCount;
+        }
+        return new Bytecode( code, instructionCount, names, maxStack );
+    }
+
+    /**
+     * Unpack this code back into Machine instructions, for display
+     * or for running on a {@link Machine}.
+     * @return the equivalent linked program
+     */
+    public Program toInstructions() {
+        List< Machine.Instruction > result =
+                new ArrayList<>( instructionCount );
+        int pc = 0;
+        while ( pc < code.length ) {
+            int word = code[ pc++ ];
+            switch ( word & OP_MASK ) {
+                case PUSH:
+                    result.add( new Machine.PushConst( operand( word ) ) );
+                    break;
+                case PUSH_WIDE:
+                    result.add( new Machine.PushConst( code[ pc++ ] ) );
+                    break;
+                case LOAD:
+                    result.add( new Machine.Load( names[ slot( word ) ] ) );
+                    break;
+                case STORE:
+                    result.add( new Machine.Store( names[ slot( word ) ] ) );
+                    break;
+                case ADD: result.add( new Machine.Add() ); break;
+                case SUB: result.add( new Machine.Subtract() ); break;
+                case MUL: result.add( new Machine.Multiply() ); break;
+                case DIV: result.add( new Machine.Divide() ); break;
+                case NEG: result.add( new Machine.Negate() ); break;
+                case SQRT: result.add( new Machine.SquareRoot() ); break;
+                case PRINT: result.add( new Machine.Print() ); break;
+                case DUP: result.add( new Machine.Duplicate() ); break;
+                case LOAD_LOAD_ADD:
+                    result.add( new Machine.LoadLoadAdd(
+                            names[ slot( word ) ], names[ code[ pc++ ] ] ) );
+                    break;
+                case ADD_CONST:
+                    result.add( new Machine.AddConst( operand( word ) ) );
+                    break;
+                case MUL_CONST:
+                    result.add( new Machine.MulConst( operand( word ) ) );
+                    break;
+                case MOVE:
+                    result.add( new Machine.Move(
+                            names[ slot( word ) ], names[ code[ pc++ ] ] ) );
+                    break;
+                default:
+                    throw new IllegalStateException(
+                            "Bad opcode " + ( word & OP_MASK ) +
+                            " at word " + ( pc - 1 ) );
+            }
+        }
+        return Program.link( result );
+    }
+
+    /**
+     * @param value a constant
+     * @return true iff the value can be stored in a word's operand bits
+     */
+    static boolean fitsOperand( int value ) {
+        return ( value << OP_BITS ) >> OP_BITS == value;
+    }
+
+    /**
+     * @param opcode one of the opcode constants in this class
+     * @param operand the instruction's operand; it must fit in 24 bits
+     * @return the instruction word
+     */
+    static int word( int opcode, int operand ) {
+        return ( operand << OP_BITS ) | opcode;
+    }
+
+    /**
+     * @param word an instruction word
+     * @return its operand, as a signed number
+     */
+    static int operand( int word ) {
+        return word >> OP_BITS;
+    }
+
+    /**
+     * @param word an instruction word
+     * @return its operand, as a slot number
+     */
+    static int slot( int word ) {
+        return word >>> OP_BITS;
+    }
+
+    /**
+     * @return the packed words (not a copy)
+     */
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * @return the variable names, indexed by slot (not a copy)
+     */
+    String[] names() {
+        return names;
+    }
+
+    /**
+     * @return how many instructions this code holds
+     */
+    public int instructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * @return how many ints the packed code occupies
+     */
+    public int wordCount() {
+        return code.length;
+    }
+
+    /**
+     * @return how many variable slots the code uses
+     */
+    public int slotCount() {
+        return names.length;
+    }
+
+    /**
+     * @return the deepest the value stack gets while this code runs
+     */
+    public int maxStack() {
+        return maxStack;
+    }
+}
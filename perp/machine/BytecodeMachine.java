@@ -0,0 +1,252 @@
+package perp.machine;
+
+import perp.OutputSink;
+import perp.PerpArithmeticException;
+import perp.SymbolTable;
+import perp.UnknownVariableException;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * A Machine that runs {@link Bytecode} instead of a list of instruction
+ * objects. The whole program is one loop over an int array with a
+ * switch on the opcode, so there is no virtual call per instruction,
+ * and the value stack is a plain int array sized from the code's
+ * maximum stack depth.
+ *
+ * Output, errors and the final report are the same as those of
+ * {@link perp.machine.stu.Machine}.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public class BytecodeMachine {
+
+    private int[] stack;
+    private int sp;
+    private int[] frame;
+    private boolean[] defined;
+    private int[] definitionOrder;
+    private int definedCount;
+    private String[] names;
+    /** the program whose variables are held, or null before a run */
+    private Bytecode program;
+    private OutputSink out;
+
+    /**
+     * Create a BytecodeMachine in a pristine state.
+     */
+    public BytecodeMachine() {
+        this.stack = new int[ 0 ];
+        this.sp = 0;
+        this.frame = new int[ 0 ];
+        this.defined = new boolean[ 0 ];
+        this.definitionOrder = new int[ 0 ];
+        this.definedCount = 0;
+        this.names = new String[ 0 ];
+        this.program = null;
+        this.out = OutputSink.standard();
+    }
+
+    /**
+     * Run a program on this machine. Nothing is printed except by the
+     * program's own PRINT instructions, and the machine's output is
+     * flushed at the end.
+     * @param program the packed program
+     * @throws perp.PerpException if the program uses a variable that has
+     *         not been assigned or does impossible arithmetic
+     */
+    public void run( Bytecode program ) {
+        prepare( program );
+        final int[] code = program.code();
+        final int[] frame = this.frame;
+        final boolean[] defined = this.defined;
+        final int[] stack = this.stack;
+        final OutputSink out = this.out;
+        int sp = this.sp;
+        int pc = 0;
+        try {
+            while ( pc < code.length ) {
+                int word = code[ pc++ ];
+                switch ( word & Bytecode.OP_MASK ) {
+                    case Bytecode.PUSH:
+                        stack[ sp++ ] = Bytecode.operand( word );
+                        break;
+                    case Bytecode.PUSH_WIDE:
+                        stack[ sp++ ] = code[ pc++ ];
+                        break;
+                    case Bytecode.LOAD: {
+                        int slot = Bytecode.slot( word );
+                        if ( !defined[ slot ] ) {
+                            throw new UnknownVariableException( names[ slot ] );
+                        }
+                        stack[ sp++ ] = frame[ slot ];
+                        break;
+                    }
+                    case Bytecode.STORE: {
+                        int slot = Bytecode.slot( word );
+                        if ( !defined[ slot ] ) {
+                            defined[ slot ] = true;
+                            definitionOrder[ definedCount++ ] = slot;
+                        }
+                        frame[ slot ] = stack[ --sp ];
+                        break;
+                    }
+                    case Bytecode.ADD:
+                        --sp;
+                        stack[ sp - 1 ] += stack[ sp ];
+                        break;
+                    case Bytecode.SUB:
+                        --sp;
+                        stack[ sp - 1 ] -= stack[ sp ];
+                        break;
+                    case Bytecode.MUL:
+                        --sp;
+                        stack[ sp - 1 ] *= stack[ sp ];
+                        break;
+                    case Bytecode.DIV:
+                        --sp;
+                        if ( stack[ sp ] == 0 ) {
+                            throw new PerpArithmeticException( "Cannot perform division operation because the denominator is 0 ", 0 );
+                        }
+                        stack[ sp - 1 ] /= stack[ sp ];
+                        break;
+                    case Bytecode.NEG:
+                        stack[ sp - 1 ] = -stack[ sp - 1 ];
+                        break;
+                    case Bytecode.SQRT:
+                        if ( stack[ sp - 1 ] < 0 ) {
+                            throw new PerpArithmeticException( "Can't do Square Root on a Negative Integer", stack[ sp - 1 ] );
+                        }
+                        stack[ sp - 1 ] = (int)Math.sqrt( stack[ sp - 1 ] );
+                        break;
+                    case Bytecode.PRINT:
+                        out.println( "*** ", stack[ --sp ] );
+                        break;
+                    case Bytecode.DUP:
+                        stack[ sp ] = stack[ sp - 1 ];
+                        ++sp;
+                        break;
+                    case Bytecode.LOAD_LOAD_ADD: {
+                        int left = Bytecode.slot( word );
+                        int right = code[ pc++ ];
+                        if ( !defined[ left ] ) {
+                            throw new UnknownVariableException( names[ left ] );
+                        }
+                        if ( !defined[ right ] ) {
+                            throw new UnknownVariableException( names[ right ] );
+                        }
+                        stack[ sp++ ] = frame[ left ] + frame[ right ];
+                        break;
+                    }
+                    case Bytecode.ADD_CONST:
+                        stack[ sp - 1 ] += Bytecode.operand( word );
+                        break;
+                    case Bytecode.MUL_CONST:
+                        stack[ sp - 1 ] *= Bytecode.operand( word );
+                        break;
+                    case Bytecode.MOVE: {
+                        int from = Bytecode.slot( word );
+                        int to = code[ pc++ ];
+                        if ( !defined[ from ] ) {
+                            throw new UnknownVariableException( names[ from ] );
+                        }
+                        if ( !defined[ to ] ) {
+                            defined[ to ] = true;
+                            definitionOrder[ definedCount++ ] = to;
+                        }
+                        frame[ to ] = frame[ from ];
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException(
+                                "Bad opcode " + ( word & Bytecode.OP_MASK ) +
+                                " at word " + ( pc - 1 ) );
+                }
+            }
+        }
+        catch ( ArrayIndexOutOfBoundsException underflow ) {
+            // Only the value stack can be indexed out of bounds:
+            // the code popped more than it pushed.
+            throw new EmptyStackException();
+        }
+        finally {
+            this.sp = sp;
+            out.flush();
+        }
+    }
+
+    /**
+     * Send this machine's output, that of PRINT and of the symbol table
+     * it reports, somewhere other than standard output.
+     * @param out where the output goes
+     */
+    public void setOutput( OutputSink out ) {
+        this.out = out;
+    }
+
+    /**
+     * Make room for the program's variables and its deepest stack.
+     * A program other than the last one run has its own slots, so the
+     * variables of the last one are forgotten; running the same program
+     * again keeps them, as the Machine does for programs linked
+     * against one SlotTable.
+     * @param program the program about to be run
+     */
+    private void prepare( Bytecode program ) {
+        int slotCount = program.slotCount();
+        if ( program != this.program ) {
+            this.program = program;
+            Arrays.fill( defined, false );
+            definedCount = 0;
+            names = program.names();
+        }
+        if ( slotCount > frame.length ) {
+            frame = Arrays.copyOf( frame, slotCount );
+            defined = Arrays.copyOf( defined, slotCount );
+            definitionOrder = Arrays.copyOf( definitionOrder, slotCount );
+        }
+        if ( sp + program.maxStack() > stack.length ) {
+            stack = Arrays.copyOf( stack, sp + program.maxStack() );
+        }
+    }
+
+    /**
+     * @return how many values are currently on this machine's stack
+     */
+    public int stackSize() {
+        return sp;
+    }
+
+    /**
+     * Copy this machine's variables into a symbol table, in the order
+     * in which they were first assigned.
+     * @return a new SymbolTable holding every variable assigned so far,
+     *         with this machine's output
+     */
+    public SymbolTable getSymbolTable() {
+        SymbolTable table = new SymbolTable( out );
+        for ( int i = 0; i < definedCount; ++i ) {
+            int slot = definitionOrder[ i ];
+            table.put( names[ slot ], frame[ slot ] );
+        }
+        return table;
+    }
+
+    /**
+     * Run a packed program on a new BytecodeMachine.
+     * Report on the final size of the stack (should normally be empty)
+     * and the contents of the symbol table.
+     * @param program the packed program
+     */
+    public static void execute( Bytecode program ) {
+        BytecodeMachine machine = new BytecodeMachine();
+        System.out.println( "Executing compiled code..." );
+        machine.run( program );
+        System.out.println( "Machine: execution ended with " +
+                machine.stackSize() + " items left on the stack." );
+        System.out.println();
+        machine.getSymbolTable().dump();
+    }
+}
@@ -1,14 +1,21 @@
 package perp.machine;
 
+import perp.Errors;
+import perp.PerpException;
 import perp.machine.stu.Machine;
+import perp.machine.stu.Program;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Function;
 
 /**
- * Assemble instructions from a file.
+ * Assemble instructions from a file, either assembly language text
+ * or a binary object file (see {@link ObjectFile}).
  * This is a project debugging aid.
  *
  * @author James Heliotis
@@ -31,46 +38,206 @@ public class InstructionReader {
         put( "NEG", in -> new Machine.Negate() );
         put( "SQRT", in -> new Machine.SquareRoot() );
         put( "PRINT", in -> new Machine.Print() );
+        put( "DUP", in -> new Machine.Duplicate() );
+        put( "LOAD_LOAD_ADD", in -> { String x = in.next();
+                                      String y = in.next();
+                                      return new Machine.LoadLoadAdd( x, y ); } );
+        put( "ADD_CONST", in -> { int i = in.nextInt();
+                                  return new Machine.AddConst( i ); } );
+        put( "MUL_CONST", in -> { int i = in.nextInt();
+                                  return new Machine.MulConst( i ); } );
+        put( "MOVE", in -> { String x = in.next();
+                             String y = in.next();
+                             return new Machine.Move( x, y ); } );
     }};
 
     /**
      * Read instructions from the named file and translate them
-     * to internal form.
-     * @param assyFile the name of the text file containing the assembly code
-     * @return a list of Machine.Instruction objects, ready to execute
+     * to internal form. A file whose name ends in
+     * {@value ObjectFile#EXTENSION} is loaded as a binary object file;
+     * any other file is read as assembly language text.
+     * @param assyFile the name of the file containing the code
+     * @return a linked Program of Machine.Instruction objects, ready to execute
+     * @see Program#link(List)
      */
     public static List< Machine.Instruction > assemble( String assyFile ) {
+        if ( ObjectFile.isObjectFile( assyFile ) ) {
+            Bytecode code = load( assyFile );
+            return code == null ? null : code.toInstructions();
+        }
         try ( FileInputStream fileStr = new FileInputStream( assyFile ) ) {
-            List< Machine.Instruction > result = new LinkedList<>();
-            Scanner in = new Scanner( fileStr );
-            while ( in.hasNext() ) {
-                String mnemonic = in.next();
-                if ( gen.containsKey( mnemonic ) ) {
-                    result.add( gen.get( mnemonic ).apply( in ) );
-                }
-                else {
-                    System.err.println( "Illegal assembly instr " + mnemonic );
-                }
-            }
-            return result;
+            List< Machine.Instruction > result = new ArrayList<>();
+            assemble( new Scanner( fileStr ), result );
+            return Program.link( result );
+        }
+        catch( IOException ioe ) {
+            System.err.println( "Could not open file " + assyFile );
+        }
+        return null;
+    }
+
+    /**
+     * Read instructions from the named file as {@link #assemble(String)}
+     * does, but look for them in a cache first. Assembly language text
+     * is keyed by its tokens, so the same code in another file, or laid
+     * out differently, is found too. Object files are not cached, and
+     * neither is text that has illegal instructions, so that they are
+     * reported every time.
+     * @param assyFile the name of the file containing the code
+     * @param cache the cache of programs already assembled, or null
+     * @return a linked Program of Machine.Instruction objects, ready to execute
+     */
+    public static List< Machine.Instruction > assemble(
+            String assyFile, ProgramCache< ? > cache ) {
+        if ( cache == null || ObjectFile.isObjectFile( assyFile ) ) {
+            return assemble( assyFile );
+        }
+        String text;
+        try {
+            text = new String( Files.readAllBytes( Paths.get( assyFile ) ),
+                               StandardCharsets.UTF_8 );
         }
         catch( IOException ioe ) {
             System.err.println( "Could not open file " + assyFile );
+            return null;
+        }
+        List< String > tokens = new ArrayList<>();
+        new Scanner( text ).forEachRemaining( tokens::add );
+        String key = ProgramCache.key( tokens, "asm" );
+        ProgramCache.Entry< ? > cached = cache.get( key );
+        if ( cached != null ) {
+            return cached.program();
+        }
+        List< Machine.Instruction > result = new ArrayList<>();
+        boolean legal = assemble( new Scanner( text ), result );
+        Program program = Program.link( result );
+        if ( legal ) {
+            cache.put( key, program, null );
+        }
+        return program;
+    }
+
+    /**
+     * Translate assembly language text to instructions. Illegal
+     * instructions are reported and skipped.
+     * @param in the text
+     * @param result where to add the instructions
+     * @return true iff every instruction was legal
+     */
+    private static boolean assemble( Scanner in,
+                                     List< Machine.Instruction > result ) {
+        boolean legal = true;
+        while ( in.hasNext() ) {
+            String mnemonic = in.next();
+            if ( gen.containsKey( mnemonic ) ) {
+                result.add( gen.get( mnemonic ).apply( in ) );
+            }
+            else {
+                System.err.println( "Illegal assembly instr " + mnemonic );
+                legal = false;
+            }
+        }
+        return legal;
+    }
+
+    /**
+     * Read packed code from the named file: an object file is loaded
+     * directly, and assembly language text is assembled and packed.
+     * @param codeFile the name of the file containing the code
+     * @return the packed program, or null if the file could not be read
+     */
+    public static Bytecode load( String codeFile ) {
+        if ( !ObjectFile.isObjectFile( codeFile ) ) {
+            List< Machine.Instruction > code = assemble( codeFile );
+            return code == null ? null : Bytecode.compile( code );
+        }
+        try {
+            return ObjectFile.load( codeFile );
+        }
+        catch( IOException ioe ) {
+            System.err.println( "Could not load object file " + codeFile +
+                                ": " + ioe.getMessage() );
         }
         return null;
     }
 
     /**
-     * Assemble and execute some Perp machine code.
-     * @param args the name of the assembly language source file
+     * @param code instructions, or null
+     * @return the instructions packed, or null if there were none
+     */
+    private static Bytecode packed( List< Machine.Instruction > code ) {
+        return code == null ? null : Bytecode.compile( code );
+    }
+
+    /**
+     * Assemble and execute some Perp machine code, or translate it
+     * into an object file.
+     * @param args the name of the assembly language source file or
+     *             object file, optionally preceded by "-b" to run the
+     *             code as packed {@link Bytecode};
+     *             or "-c", the source file, and the object file to write.
+     *             Running code may be preceded by "-k" and a directory
+     *             to keep assembled programs in a {@link ProgramCache}
+     *             that stores them there, the same option PerpTest has.
      */
     public static void main( String[] args ) {
-        if ( args.length != 1 ) {
+        ProgramCache< Void > cache = null;
+        if ( args.length > 2 && args[ 0 ].equals( "-k" ) ) {
+            cache = new ProgramCache<>( 1, Paths.get( args[ 1 ] ) );
+            args = Arrays.copyOfRange( args, 2, args.length );
+        }
+        boolean packed = args.length == 2 && args[ 0 ].equals( "-b" );
+        boolean translate = args.length == 3 && args[ 0 ].equals( "-c" );
+        if ( args.length != 1 && !packed && !translate ) {
             System.err.println(
-                    "Usage: java InstructionReader assembly-code-file" );
+                    "Usage: java InstructionReader [-k cache-dir] [-b] " +
+                    "code-file\n" +
+                    "       java InstructionReader -c code-file " +
+                    "object-file\n" +
+                    "  -k  keep assembled programs in cache-dir\n" +
+                    "  -b  run the code as packed bytecode\n" +
+                    "  -c  translate the code into an object file" );
             System.exit( 1 );
         }
-        List< Machine.Instruction > code = assemble( args[ 0 ] );
-        Machine.execute( code );
+        if ( translate ) {
+            Bytecode code = load( args[ 1 ] );
+            if ( code == null ) {
+                System.exit( 1 );
+            }
+            try {
+                ObjectFile.write( code, args[ 2 ] );
+            }
+            catch( IOException ioe ) {
+                System.err.println( "Could not write file " + args[ 2 ] );
+                System.exit( 1 );
+            }
+        }
+        else if ( packed ) {
+            Bytecode code = ObjectFile.isObjectFile( args[ 1 ] ) ?
+                    load( args[ 1 ] ) : packed( assemble( args[ 1 ], cache ) );
+            if ( code == null ) {
+                System.exit( 1 );
+            }
+            try {
+                BytecodeMachine.execute( code );
+            }
+            catch( PerpException pe ) {
+                Errors.report( pe );
+                System.exit( Errors.EXIT_STATUS );
+            }
+        }
+        else {
+            List< Machine.Instruction > code = assemble( args[ 0 ], cache );
+            if ( code == null ) {
+                System.exit( 1 );
+            }
+            try {
+                Machine.execute( code );
+            }
+            catch( PerpException pe ) {
+                Errors.report( pe );
+                System.exit( Errors.EXIT_STATUS );
+            }
+        }
     }
 }
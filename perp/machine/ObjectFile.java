@@ -0,0 +1,175 @@
+package perp.machine;
+
+import perp.machine.stu.Machine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reading and writing of assembled programs in binary ".perpc" form,
+ * so that a big program can be loaded without parsing any text.
+ *
+ * A .perpc file holds, in big-endian order:
+ * <pre>
+ *     int      magic number, the characters "PERP"
+ *     int      format version
+ *     int      instruction count
+ *     int      maximum stack depth
+ *     int      number of variable slots
+ *     for each slot:
+ *         int  length in bytes of the variable's name
+ *         byte the name, in UTF-8
+ *     int      number of code words
+ *     int      the code words, as described in {@link Bytecode}
+ * </pre>
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public class ObjectFile {
+
+    /** The usual file name extension for object files */
+    public static final String EXTENSION = ".perpc";
+
+    private static final int MAGIC = 0x50455250; // "PERP"
+    private static final int VERSION = 1;
+
+    /** Do not instantiate this class. */
+    private ObjectFile() {}
+
+    /**
+     * @param fileName a file name
+     * @return true iff the name has the object file extension
+     */
+    public static boolean isObjectFile( String fileName ) {
+        return fileName.endsWith( EXTENSION );
+    }
+
+    /**
+     * Pack a program and write it to an object file.
+     * @param program the instructions, in execution order
+     * @param objFile the name of the file to create or replace
+     * @throws IOException if the file cannot be written
+     */
+    public static void write( List< Machine.Instruction > program,
+                              String objFile ) throws IOException {
+        write( Bytecode.compile( program ), objFile );
+    }
+
+    /**
+     * Write packed code to an object file.
+     * @param program the packed program
+     * @param objFile the name of the file to create or replace
+     * @throws IOException if the file cannot be written
+     */
+    public static void write( Bytecode program, String objFile )
+            throws IOException {
+        String[] names = program.names();
+        byte[][] encoded = new byte[ names.length ][];
+        int size = 6 * Integer.BYTES;
+        for ( int slot = 0; slot < names.length; ++slot ) {
+            encoded[ slot ] = names[ slot ].getBytes( StandardCharsets.UTF_8 );
+            size += Integer.BYTES + encoded[ slot ].length;
+        }
+        int[] code = program.code();
+        size += code.length * Integer.BYTES;
+
+        ByteBuffer out = ByteBuffer.allocate( size );
+        out.putInt( MAGIC )
+           .putInt( VERSION )
+           .putInt( program.instructionCount() )
+           .putInt( program.maxStack() )
+           .putInt( names.length );
+        for ( byte[] name: encoded ) {
+            out.putInt( name.length ).put( name );
+        }
+        out.putInt( code.length );
+        out.asIntBuffer().put( code );
+        out.position( out.limit() );
+        out.flip();
+
+        Path path = Paths.get( objFile );
+        try ( FileChannel channel = FileChannel.open( path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            while ( out.hasRemaining() ) {
+                channel.write( out );
+            }
+        }
+    }
+
+    /**
+     * Load packed code from an object file. The file is memory-mapped
+     * and its code words are copied out in one bulk transfer.
+     * @param objFile the name of the object file
+     * @return the packed program
+     * @throws IOException if the file cannot be read or is not
+     *                     a Perp object file
+     */
+    public static Bytecode load( String objFile ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( Paths.get( objFile ),
+                StandardOpenOption.READ ) ) {
+            MappedByteBuffer in = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            try {
+                if ( in.getInt() != MAGIC ) {
+                    throw new IOException( objFile +
+                                           " is not a Perp object file" );
+                }
+                int version = in.getInt();
+                if ( version != VERSION ) {
+                    throw new IOException( objFile +
+                            " has unsupported object file version " +
+                            version );
+                }
+                int instructionCount = in.getInt();
+                int maxStack = in.getInt();
+                // Each name takes at least its length word.
+                String[] names = new String[ count( in, 4, objFile ) ];
+                for ( int slot = 0; slot < names.length; ++slot ) {
+                    byte[] name = new byte[ count( in, 1, objFile ) ];
+                    in.get( name );
+                    names[ slot ] = new String( name, StandardCharsets.UTF_8 );
+                }
+                int[] code = new int[ count( in, 4, objFile ) ];
+                in.asIntBuffer().get( code );
+                Bytecode program = Bytecode.verify( code, names );
+                if ( program.instructionCount() != instructionCount ||
+                     program.maxStack() != maxStack ) {
+                    throw new IOException( objFile + " is damaged" );
+                }
+                return program;
+            }
+            catch ( RuntimeException badData ) {
+                throw new IOException( objFile + " is damaged", badData );
+            }
+        }
+    }
+
+    /**
+     * Read the number of items that come next in an object file, and
+     * check that the rest of the file is long enough to hold them, so
+     * that a damaged count is reported before anything is allocated
+     * for it.
+     * @param in the file's contents, positioned at the count
+     * @param width the fewest bytes each item takes
+     * @param objFile the name of the file, for the report
+     * @return the count
+     * @throws IOException if the count is negative or the file too short
+     */
+    private static int count( ByteBuffer in, int width, String objFile )
+            throws IOException {
+        int count = in.getInt();
+        if ( count < 0 || (long)count * width > in.remaining() ) {
+            throw new IOException( objFile + " is damaged" );
+        }
+        return count;
+    }
+}
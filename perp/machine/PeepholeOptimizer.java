@@ -0,0 +1,182 @@
+package perp.machine;
+
+import perp.machine.stu.Machine;
+import perp.machine.stu.Program;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A peephole optimizer for Machine programs. Instructions are copied
+ * to the output one at a time, and after each one the end of the output
+ * is checked against these patterns:
+ * <pre>
+ *     PUSH a; PUSH b; ADD|SUB|MUL|DIV  becomes  PUSH (a op b)
+ *     PUSH c; NEG                      becomes  PUSH -c
+ *     PUSH c; SQRT                     becomes  PUSH sqrt(c)
+ *     NEG; NEG                         is removed
+ *     STORE x; LOAD x                  becomes  DUP; STORE x
+ * </pre>
+ * The last pattern removes nothing; it trades a variable lookup for a
+ * DUP of the value already on the stack, so it is counted apart from
+ * the removals in the {@link #report() report}.
+ *
+ * Because the result of one rewrite is itself checked, chains such as
+ * constant subexpressions fold all the way down. Division by a constant
+ * zero and the square root of a negative constant are left alone, so
+ * they still fail when the program runs.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public class PeepholeOptimizer {
+
+    private int folded = 0;
+    private int negationsRemoved = 0;
+    private int reloadsRewritten = 0;
+    private int before = 0;
+    private int after = 0;
+
+    /**
+     * Create an optimizer with all its counters at zero.
+     */
+    public PeepholeOptimizer() {}
+
+    /**
+     * Optimize a program. The counters of this optimizer accumulate
+     * over every program it is given.
+     * @param program the instructions, in execution order
+     * @return the linked, optimized program
+     */
+    public Program optimize( List< Machine.Instruction > program ) {
+        List< Machine.Instruction > out = new ArrayList<>( program.size() );
+        for ( Machine.Instruction instr: program ) {
+            out.add( instr );
+            simplifyTail( out );
+        }
+        before += program.size();
+        after += out.size();
+        return Program.link( out );
+    }
+
+    /**
+     * Rewrite the end of the output for as long as a pattern matches.
+     * @param out the instructions produced so far
+     */
+    private void simplifyTail( List< Machine.Instruction > out ) {
+        boolean changed = true;
+        while ( changed && !out.isEmpty() ) {
+            changed = false;
+            int n = out.size();
+            Machine.Instruction last = out.get( n - 1 );
+            Machine.Instruction prev = n >= 2 ? out.get( n - 2 ) : null;
+            if ( prev instanceof Machine.PushConst ) {
+                int c = ( (Machine.PushConst)prev ).getConstant();
+                if ( last instanceof Machine.Negate ) {
+                    replaceTail( out, 2, new Machine.PushConst( -c ) );
+                    ++folded;
+                    changed = true;
+                }
+                else if ( last instanceof Machine.SquareRoot && c >= 0 ) {
+                    replaceTail( out, 2,
+                                 new Machine.PushConst( (int)Math.sqrt( c ) ) );
+                    ++folded;
+                    changed = true;
+                }
+                else if ( n >= 3 &&
+                          out.get( n - 3 ) instanceof Machine.PushConst ) {
+                    int a = ( (Machine.PushConst)out.get( n - 3 ) )
+                            .getConstant();
+                    Machine.Instruction result = fold( a, c, last );
+                    if ( result != null ) {
+                        replaceTail( out, 3, result );
+                        ++folded;
+                        changed = true;
+                    }
+                }
+            }
+            else if ( prev instanceof Machine.Negate &&
+                      last instanceof Machine.Negate ) {
+                replaceTail( out, 2, null );
+                ++negationsRemoved;
+                changed = true;
+            }
+            else if ( prev instanceof Machine.Store &&
+                      last instanceof Machine.Load &&
+                      ( (Machine.Store)prev ).getName().equals(
+                              ( (Machine.Load)last ).getName() ) ) {
+                replaceTail( out, 2, new Machine.Duplicate() );
+                out.add( prev );
+                ++reloadsRewritten;
+            }
+        }
+    }
+
+    /**
+     * @param a the left operand
+     * @param b the right operand
+     * @param op an instruction
+     * @return a PUSH of the result if op is an arithmetic instruction
+     *         that can safely be done now, otherwise null
+     */
+    private static Machine.Instruction fold( int a, int b,
+                                             Machine.Instruction op ) {
+        if ( op instanceof Machine.Add ) {
+            return new Machine.PushConst( a + b );
+        }
+        else if ( op instanceof Machine.Subtract ) {
+            return new Machine.PushConst( a - b );
+        }
+        else if ( op instanceof Machine.Multiply ) {
+            return new Machine.PushConst( a * b );
+        }
+        else if ( op instanceof Machine.Divide && b != 0 ) {
+            return new Machine.PushConst( a / b );
+        }
+        return null;
+    }
+
+    /**
+     * Remove instructions from the end of a list and add a replacement.
+     * @param out the list
+     * @param count how many instructions to remove
+     * @param replacement the instruction to add, or null for none
+     */
+    private static void replaceTail( List< Machine.Instruction > out,
+                                     int count,
+                                     Machine.Instruction replacement ) {
+        for ( int i = 0; i < count; ++i ) {
+            out.remove( out.size() - 1 );
+        }
+        if ( replacement != null ) {
+            out.add( replacement );
+        }
+    }
+
+    /**
+     * @return how many instructions have been removed so far
+     */
+    public int removed() {
+        return before - after;
+    }
+
+    /**
+     * @return how many STORE x; LOAD x pairs have been rewritten so far
+     */
+    public int rewritten() {
+        return reloadsRewritten;
+    }
+
+    /**
+     * Describe what the optimizer has done to the programs it was given.
+     * @return a one-line-per-rule summary
+     */
+    public String report() {
+        return "Peephole optimizer removed " + removed() + " of " + before +
+               " instructions:\n" +
+               "  constant operations folded: " + folded + "\n" +
+               "  NEG pairs removed:          " + negationsRemoved + "\n" +
+               "Peephole optimizer rewrote, keeping the same length:\n" +
+               "  STORE x; LOAD x to DUP; STORE x: " + reloadsRewritten + "\n";
+    }
+}
@@ -0,0 +1,319 @@
+package perp.machine;
+
+import perp.machine.stu.Program;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of compiled Machine programs, keyed by a hash of the source
+ * tokens, so that a program submitted again need not be parsed and
+ * compiled again.
+ *
+ * The first tier is in memory: at most a fixed number of entries, the
+ * least recently used of which is evicted to make room. An entry can
+ * also hold something built along the way, such as the parse tree, of
+ * type T. The optional second tier is a directory of {@link ObjectFile}s,
+ * one per program, named by its key; it keeps only the compiled
+ * program, and lasts from one run to the next. A program found on disk
+ * is brought back into memory.
+ *
+ * A ProgramCache may be shared by threads. Two threads that miss on the
+ * same program at once will both compile it.
+ *
+ * @param <T> the type of what is kept in memory along with a program
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class ProgramCache< T > {
+
+    /**
+     * A cached program, and what was kept with it.
+     * @param <T> the type of what was kept with the program
+     */
+    public static final class Entry< T > {
+        private final Program program;
+        private final T extra;
+
+        private Entry( Program program, T extra ) {
+            this.program = program;
+            this.extra = extra;
+        }
+
+        /**
+         * @return the compiled program
+         */
+        public Program program() {
+            return program;
+        }
+
+        /**
+         * @return what was kept with the program, or null if nothing was
+         *         or the program came from disk
+         */
+        public T extra() {
+            return extra;
+        }
+    }
+
+    /**
+     * The memory tier: a map in access order that drops its least
+     * recently used entry when it grows past its capacity.
+     * @param <V> the type of the entries
+     */
+    private static final class LruMap< V > extends LinkedHashMap< String, V > {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private long evictions = 0;
+
+        LruMap( int capacity ) {
+            super( 16, 0.75f, true );
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry< String, V > eldest ) {
+            if ( size() > capacity ) {
+                ++evictions;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final int capacity;
+    private final Path directory;
+    private final LruMap< Entry< T > > memory;
+
+    private long hits = 0;
+    private long diskHits = 0;
+    private long misses = 0;
+    private long diskWrites = 0;
+
+    /**
+     * Create a cache that is only in memory.
+     * @param capacity the most programs to hold
+     */
+    public ProgramCache( int capacity ) {
+        this( capacity, null );
+    }
+
+    /**
+     * Create a cache with a disk tier.
+     * @param capacity the most programs to hold in memory
+     * @param directory where to keep object files, created if it does not
+     *                  exist, or null to keep nothing on disk
+     * @throws IllegalArgumentException if capacity is not positive or the
+     *         directory cannot be created
+     */
+    public ProgramCache( int capacity, Path directory ) {
+        if ( capacity < 1 ) {
+            throw new IllegalArgumentException(
+                    "Cache capacity must be positive: " + capacity );
+        }
+        if ( directory != null ) {
+            try {
+                Files.createDirectories( directory );
+            }
+            catch ( IOException ioe ) {
+                throw new IllegalArgumentException(
+                        "Cannot use cache directory " + directory, ioe );
+            }
+        }
+        this.capacity = capacity;
+        this.directory = directory;
+        this.memory = new LruMap<>( capacity );
+    }
+
+    /**
+     * Compute the key of a program: the SHA-256 hash, in hexadecimal, of
+     * its tokens and of a variant that tells apart different ways of
+     * compiling the same source.
+     * @param tokens the program's tokens
+     * @param variant how it is compiled, such as "O" if it is optimized;
+     *                "" for the usual way
+     * @return the key
+     */
+    public static String key( List< String > tokens, String variant ) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException nsae ) {
+            // Every Java platform is required to have SHA-256.
+            throw new IllegalStateException( nsae );
+        }
+        digest.update( variant.getBytes( StandardCharsets.UTF_8 ) );
+        for ( String token: tokens ) {
+            // Separate the tokens so that "ab" "c" and "a" "bc" differ.
+            digest.update( (byte)0 );
+            digest.update( token.getBytes( StandardCharsets.UTF_8 ) );
+        }
+        StringBuilder hex = new StringBuilder( 64 );
+        for ( byte b: digest.digest() ) {
+            hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) )
+               .append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Look up a program, first in memory and then on disk.
+     * @param key the program's key
+     * @return the cached entry, or null if the program is not cached
+     */
+    public Entry< T > get( String key ) {
+        synchronized ( this ) {
+            Entry< T > entry = memory.get( key );
+            if ( entry != null ) {
+                ++hits;
+                return entry;
+            }
+        }
+        Program program = directory == null ? null : load( key );
+        synchronized ( this ) {
+            if ( program == null ) {
+                ++misses;
+                return null;
+            }
+            ++diskHits;
+            Entry< T > entry = new Entry<>( program, null );
+            memory.put( key, entry );
+            return entry;
+        }
+    }
+
+    /**
+     * Add a program to the cache, in memory and, if there is a disk
+     * tier, on disk.
+     * @param key the program's key
+     * @param program the compiled program
+     * @param extra what to keep in memory with it, or null
+     * @return the new entry
+     */
+    public Entry< T > put( String key, Program program, T extra ) {
+        Entry< T > entry = new Entry<>( program, extra );
+        synchronized ( this ) {
+            memory.put( key, entry );
+        }
+        if ( directory != null && store( key, program ) ) {
+            synchronized ( this ) {
+                ++diskWrites;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Read a program from the disk tier. A file that cannot be read is
+     * treated as missing.
+     * @param key the program's key
+     * @return the program, or null if it is not there
+     */
+    private Program load( String key ) {
+        Path file = file( key );
+        if ( !Files.isRegularFile( file ) ) {
+            return null;
+        }
+        try {
+            return ObjectFile.load( file.toString() ).toInstructions();
+        }
+        catch ( IOException ioe ) {
+            return null;
+        }
+    }
+
+    /**
+     * Write a program to the disk tier. It is written to a temporary
+     * file first and then renamed, so that another process never sees
+     * half a file. Failure only means the program is not kept on disk.
+     * @param key the program's key
+     * @param program the program
+     * @return true iff the program was written
+     */
+    private boolean store( String key, Program program ) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile( directory, key, ".tmp" );
+            ObjectFile.write( program, temporary.toString() );
+            Files.move( temporary, file( key ),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+            return true;
+        }
+        catch ( IOException | RuntimeException e ) {
+            if ( temporary != null ) {
+                try {
+                    Files.deleteIfExists( temporary );
+                }
+                catch ( IOException ignored ) {
+                    // It is only a temporary file.
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param key a program's key
+     * @return the program's file in the disk tier
+     */
+    private Path file( String key ) {
+        return directory.resolve( key + ObjectFile.EXTENSION );
+    }
+
+    /**
+     * @return how many programs are in memory
+     */
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    /**
+     * @return how many lookups found the program in memory
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return how many lookups found the program only on disk
+     */
+    public synchronized long diskHits() {
+        return diskHits;
+    }
+
+    /**
+     * @return how many lookups did not find the program
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return how many programs have been dropped from memory for room
+     */
+    public synchronized long evictions() {
+        return memory.evictions;
+    }
+
+    /**
+     * Describe how the cache has been used.
+     * @return a one-line summary
+     */
+    public synchronized String report() {
+        return "Program cache: " + hits + " hits, " + diskHits +
+               " disk hits, " + misses + " misses, " + memory.evictions +
+               " evictions, " + diskWrites + " disk writes, " +
+               memory.size() + " of " + capacity + " in memory";
+    }
+}
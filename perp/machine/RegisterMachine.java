@@ -0,0 +1,167 @@
+package perp.machine;
+
+import perp.OutputSink;
+import perp.PerpArithmeticException;
+import perp.SymbolTable;
+import perp.UnknownVariableException;
+
+/**
+ * A machine that runs {@link RegisterProgram}s. Like the
+ * {@link BytecodeMachine} it is one loop over an int array with a
+ * switch on the opcode, but there is no value stack: each instruction
+ * names the registers it reads and the one it writes.
+ *
+ * PRINT output and error messages are the same as those of
+ * {@link perp.machine.stu.Machine}.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public class RegisterMachine {
+
+    private int[] registers;
+    private String[] names;
+    private int[] definitionOrder;
+    private OutputSink out;
+
+    /**
+     * Create a RegisterMachine in a pristine state.
+     */
+    public RegisterMachine() {
+        this.registers = new int[ 0 ];
+        this.names = new String[ 0 ];
+        this.definitionOrder = new int[ 0 ];
+        this.out = OutputSink.standard();
+    }
+
+    /**
+     * Run a program on this machine, starting with every register
+     * at zero. Nothing is printed except by the program's own PRINT
+     * instructions, and the machine's output is flushed at the end.
+     * @param program the program
+     * @throws perp.PerpException if the program uses a variable that has
+     *         not been assigned or does impossible arithmetic
+     */
+    public void run( RegisterProgram program ) {
+        final int[] code = program.code();
+        final int[] r = new int[ program.registerCount() ];
+        registers = r;
+        names = program.names();
+        definitionOrder = program.definitionOrder();
+        try {
+            loop( code, r );
+        }
+        finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Execute register code.
+     * @param code the instruction words
+     * @param r the registers
+     */
+    private void loop( int[] code, int[] r ) {
+        final OutputSink out = this.out;
+        for ( int pc = 0; pc < code.length; pc += RegisterProgram.WIDTH ) {
+            switch ( code[ pc ] ) {
+                case RegisterProgram.LOADI:
+                    r[ code[ pc + 1 ] ] = code[ pc + 2 ];
+                    break;
+                case RegisterProgram.MOVE:
+                    r[ code[ pc + 1 ] ] = r[ code[ pc + 2 ] ];
+                    break;
+                case RegisterProgram.ADD:
+                    r[ code[ pc + 1 ] ] = r[ code[ pc + 2 ] ] +
+                                          r[ code[ pc + 3 ] ];
+                    break;
+                case RegisterProgram.SUB:
+                    r[ code[ pc + 1 ] ] = r[ code[ pc + 2 ] ] -
+                                          r[ code[ pc + 3 ] ];
+                    break;
+                case RegisterProgram.MUL:
+                    r[ code[ pc + 1 ] ] = r[ code[ pc + 2 ] ] *
+                                          r[ code[ pc + 3 ] ];
+                    break;
+                case RegisterProgram.DIV: {
+                    int denominator = r[ code[ pc + 3 ] ];
+                    if ( denominator == 0 ) {
+                        throw new PerpArithmeticException( "Cannot perform division operation because the denominator is 0 ", 0 );
+                    }
+                    r[ code[ pc + 1 ] ] = r[ code[ pc + 2 ] ] / denominator;
+                    break;
+                }
+                case RegisterProgram.NEG:
+                    r[ code[ pc + 1 ] ] = -r[ code[ pc + 2 ] ];
+                    break;
+                case RegisterProgram.SQRT: {
+                    int operand = r[ code[ pc + 2 ] ];
+                    if ( operand < 0 ) {
+                        throw new PerpArithmeticException( "Can't do Square Root on a Negative Integer", operand );
+                    }
+                    r[ code[ pc + 1 ] ] = (int)Math.sqrt( operand );
+                    break;
+                }
+                case RegisterProgram.PRINT:
+                    out.println( "*** ", r[ code[ pc + 1 ] ] );
+                    break;
+                case RegisterProgram.UNDEF:
+                    throw new UnknownVariableException(
+                            names[ code[ pc + 1 ] ] );
+                default:
+                    throw new IllegalStateException(
+                            "Bad opcode " + code[ pc ] + " at word " + pc );
+            }
+        }
+    }
+
+    /**
+     * Send this machine's output, that of PRINT and of the symbol table
+     * it reports, somewhere other than standard output.
+     * @param out where the output goes
+     */
+    public void setOutput( OutputSink out ) {
+        this.out = out;
+    }
+
+    /**
+     * Copy the variables of the last program run into a symbol table,
+     * in the order in which they were first assigned.
+     * @return a new SymbolTable holding every variable the program
+     *         assigned, with this machine's output
+     */
+    public SymbolTable getSymbolTable() {
+        SymbolTable table = new SymbolTable( out );
+        for ( int register: definitionOrder ) {
+            table.put( names[ register ], registers[ register ] );
+        }
+        return table;
+    }
+
+    /**
+     * Print a register program, one instruction per line.
+     * @param program the program
+     */
+    public static void displayInstructions( RegisterProgram program ) {
+        System.out.println( "\nRegister code (" + program.registerCount() +
+                            " registers):" );
+        for ( int i = 0; i < program.instructionCount(); ++i ) {
+            System.out.println( program.instruction( i ) );
+        }
+        System.out.println();
+    }
+
+    /**
+     * Run a program on a new RegisterMachine.
+     * Report on the contents of the symbol table.
+     * @param program the program
+     */
+    public static void execute( RegisterProgram program ) {
+        RegisterMachine machine = new RegisterMachine();
+        System.out.println( "Executing register code..." );
+        machine.run( program );
+        System.out.println( "Register machine: execution ended." );
+        System.out.println();
+        machine.getSymbolTable().dump();
+    }
+}
@@ -0,0 +1,176 @@
+package perp.machine;
+
+/**
+ * A program for the {@link RegisterMachine}: three-address instructions
+ * over a file of int registers. Each instruction takes four words of
+ * the code array: the opcode and up to three operands, unused ones 0.
+ * <pre>
+ *     LOADI  r, c       r = c
+ *     MOVE   r, s       r = s
+ *     ADD    r, s, t    r = s + t      (also SUB, MUL, DIV)
+ *     NEG    r, s       r = -s
+ *     SQRT   r, s       r = sqrt(s)
+ *     PRINT  s          print s
+ *     UNDEF  s          report that variable s has not been assigned
+ * </pre>
+ * The first registers hold the program's variables, one each, so
+ * reading a variable costs no instruction at all; the rest are
+ * temporaries for partial results. Perp programs are straight-line code,
+ * so which variables have been assigned at each point is known when the
+ * program is generated. A read of one that has not is preceded by an
+ * UNDEF, and the order in which the variables are first assigned is
+ * recorded with the program.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public final class RegisterProgram {
+
+    public static final int LOADI = 0;
+    public static final int MOVE = 1;
+    public static final int ADD = 2;
+    public static final int SUB = 3;
+    public static final int MUL = 4;
+    public static final int DIV = 5;
+    public static final int NEG = 6;
+    public static final int SQRT = 7;
+    public static final int PRINT = 8;
+    public static final int UNDEF = 9;
+
+    /** how many code words each instruction takes */
+    public static final int WIDTH = 4;
+
+    private static final String[] MNEMONICS = {
+            "LOADI", "MOVE", "ADD", "SUB", "MUL", "DIV", "NEG", "SQRT",
+            "PRINT", "UNDEF"
+    };
+
+    /** how many operands each opcode has */
+    private static final int[] OPERANDS = {
+            2, 2, 3, 3, 3, 3, 2, 2, 1, 1
+    };
+
+    private final int[] code;
+    private final String[] names;
+    private final int registerCount;
+    private final int[] definitionOrder;
+
+    /**
+     * Create a program from its parts, which are checked but not copied.
+     * @param code the instructions, {@link #WIDTH} words each
+     * @param names the variable names; variable i is in register i
+     * @param registerCount how many registers the code uses, variables
+     *                      included
+     * @param definitionOrder the variables' registers, in the order in
+     *                        which the code first assigns them
+     * @throws IllegalArgumentException if an opcode is unknown or a
+     *         register number is out of range
+     */
+    public RegisterProgram( int[] code, String[] names, int registerCount,
+                            int[] definitionOrder ) {
+        if ( code.length % WIDTH != 0 || registerCount < names.length ) {
+            throw new IllegalArgumentException( "Malformed register code" );
+        }
+        for ( int pc = 0; pc < code.length; pc += WIDTH ) {
+            int opcode = code[ pc ];
+            if ( opcode < 0 || opcode >= MNEMONICS.length ) {
+                throw new IllegalArgumentException(
+                        "Bad opcode " + opcode + " at word " + pc );
+            }
+            for ( int i = 1; i <= OPERANDS[ opcode ]; ++i ) {
+                int register = code[ pc + i ];
+                boolean isConstant = opcode == LOADI && i == 2;
+                if ( !isConstant &&
+                     ( register < 0 || register >= registerCount ||
+                       opcode == UNDEF && register >= names.length ) ) {
+                    throw new IllegalArgumentException(
+                            "Bad register " + register + " at word " + pc );
+                }
+            }
+        }
+        for ( int register: definitionOrder ) {
+            if ( register < 0 || register >= names.length ) {
+                throw new IllegalArgumentException(
+                        "Bad variable register " + register );
+            }
+        }
+        this.code = code;
+        this.names = names;
+        this.registerCount = registerCount;
+        this.definitionOrder = definitionOrder;
+    }
+
+    /**
+     * @return the instruction words; not to be changed
+     */
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * @return the variable names, indexed by register; not to be changed
+     */
+    String[] names() {
+        return names;
+    }
+
+    /**
+     * @return the variables' registers in the order they are first
+     *         assigned; not to be changed
+     */
+    int[] definitionOrder() {
+        return definitionOrder;
+    }
+
+    /**
+     * @return how many instructions there are
+     */
+    public int instructionCount() {
+        return code.length / WIDTH;
+    }
+
+    /**
+     * @return how many registers the code uses, variables included
+     */
+    public int registerCount() {
+        return registerCount;
+    }
+
+    /**
+     * @return how many of the registers hold variables
+     */
+    public int variableCount() {
+        return names.length;
+    }
+
+    /**
+     * Render one instruction as assembly text. Variables are shown by
+     * name and temporaries as $0, $1, ...
+     * @param index the instruction's position in the program
+     * @return the instruction's text
+     */
+    public String instruction( int index ) {
+        int pc = index * WIDTH;
+        int opcode = code[ pc ];
+        StringBuilder text = new StringBuilder( MNEMONICS[ opcode ] );
+        for ( int i = 1; i <= OPERANDS[ opcode ]; ++i ) {
+            text.append( i == 1 ? "\t" : ", " );
+            if ( opcode == LOADI && i == 2 ) {
+                text.append( code[ pc + i ] );
+            }
+            else {
+                text.append( register( code[ pc + i ] ) );
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param register a register number
+     * @return the variable's name, or $n for the n-th temporary
+     */
+    private String register( int register ) {
+        return register < names.length ?
+               names[ register ] : "$" + ( register - names.length );
+    }
+}
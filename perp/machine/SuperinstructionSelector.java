@@ -0,0 +1,166 @@
+package perp.machine;
+
+import perp.machine.stu.Machine;
+import perp.machine.stu.Program;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pass that replaces common instruction sequences in a Machine program
+ * with superinstructions, each of which does the work of the whole
+ * sequence in one dispatch:
+ * <pre>
+ *     LOAD x; LOAD y; ADD   becomes  LOAD_LOAD_ADD x y
+ *     LOAD x; STORE y       becomes  MOVE x y
+ *     PUSH c; ADD           becomes  ADD_CONST c
+ *     PUSH c; MUL           becomes  MUL_CONST c
+ * </pre>
+ * The sequences come from a static table, {@link Rule}, and are tried
+ * at each position in the table's order, longest first, so that a
+ * three-instruction sequence is not broken up by a pair inside it.
+ * The program is scanned once, left to right, and a fused instruction
+ * is never fused again.
+ *
+ * Run this after the {@link PeepholeOptimizer}, whose patterns only
+ * know the basic instructions.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public class SuperinstructionSelector {
+
+    /**
+     * The table of sequences to fuse.
+     */
+    private enum Rule {
+        LOAD_LOAD_ADD( 3 ) {
+            @Override
+            Machine.Instruction fuse( Machine.Instruction[] code, int at ) {
+                if ( code[ at ] instanceof Machine.Load &&
+                     code[ at + 1 ] instanceof Machine.Load &&
+                     code[ at + 2 ] instanceof Machine.Add ) {
+                    return new Machine.LoadLoadAdd(
+                            ( (Machine.Load)code[ at ] ).getName(),
+                            ( (Machine.Load)code[ at + 1 ] ).getName() );
+                }
+                return null;
+            }
+        },
+        MOVE( 2 ) {
+            @Override
+            Machine.Instruction fuse( Machine.Instruction[] code, int at ) {
+                if ( code[ at ] instanceof Machine.Load &&
+                     code[ at + 1 ] instanceof Machine.Store ) {
+                    return new Machine.Move(
+                            ( (Machine.Load)code[ at ] ).getName(),
+                            ( (Machine.Store)code[ at + 1 ] ).getName() );
+                }
+                return null;
+            }
+        },
+        ADD_CONST( 2 ) {
+            @Override
+            Machine.Instruction fuse( Machine.Instruction[] code, int at ) {
+                if ( code[ at ] instanceof Machine.PushConst &&
+                     code[ at + 1 ] instanceof Machine.Add ) {
+                    return new Machine.AddConst(
+                            ( (Machine.PushConst)code[ at ] ).getConstant() );
+                }
+                return null;
+            }
+        },
+        MUL_CONST( 2 ) {
+            @Override
+            Machine.Instruction fuse( Machine.Instruction[] code, int at ) {
+                if ( code[ at ] instanceof Machine.PushConst &&
+                     code[ at + 1 ] instanceof Machine.Multiply ) {
+                    return new Machine.MulConst(
+                            ( (Machine.PushConst)code[ at ] ).getConstant() );
+                }
+                return null;
+            }
+        };
+
+        /** how many instructions the sequence has */
+        private final int length;
+
+        Rule( int length ) {
+            this.length = length;
+        }
+
+        /**
+         * @param code the program
+         * @param at where the sequence would start; there are at least
+         *           length instructions from here
+         * @return the superinstruction for the sequence at that position,
+         *         or null if it is not there
+         */
+        abstract Machine.Instruction fuse( Machine.Instruction[] code,
+                                           int at );
+    }
+
+    private final int[] fused = new int[ Rule.values().length ];
+    private int before = 0;
+    private int after = 0;
+
+    /**
+     * Create a selector with all its counters at zero.
+     */
+    public SuperinstructionSelector() {}
+
+    /**
+     * Select superinstructions for a program. The counters of this
+     * selector accumulate over every program it is given.
+     * @param program the instructions, in execution order
+     * @return the linked program with superinstructions
+     */
+    public Program select( List< Machine.Instruction > program ) {
+        Machine.Instruction[] code =
+                program.toArray( new Machine.Instruction[ 0 ] );
+        List< Machine.Instruction > out = new ArrayList<>( code.length );
+        int at = 0;
+        while ( at < code.length ) {
+            Machine.Instruction instr = null;
+            for ( Rule rule: Rule.values() ) {
+                if ( at + rule.length <= code.length ) {
+                    instr = rule.fuse( code, at );
+                    if ( instr != null ) {
+                        ++fused[ rule.ordinal() ];
+                        at += rule.length;
+                        break;
+                    }
+                }
+            }
+            if ( instr == null ) {
+                instr = code[ at++ ];
+            }
+            out.add( instr );
+        }
+        before += code.length;
+        after += out.size();
+        return Program.link( out );
+    }
+
+    /**
+     * @return how many instructions have been removed so far
+     */
+    public int removed() {
+        return before - after;
+    }
+
+    /**
+     * Describe what the selector has done to the programs it was given.
+     * @return a one-line-per-rule summary
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(
+                "Superinstructions removed " + removed() + " of " + before +
+                " instructions:\n" );
+        for ( Rule rule: Rule.values() ) {
+            report.append( String.format( "  %-14s %d\n",
+                                          rule + ":", fused[ rule.ordinal() ] ) );
+        }
+        return report.toString();
+    }
+}
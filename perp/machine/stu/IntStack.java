@@ -0,0 +1,86 @@
+package perp.machine.stu;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * The Machine's value stack. Values are kept in a growable array of
+ * primitive ints, so pushing and popping never boxes a value and never
+ * takes a lock.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class IntStack {
+
+    /** How many values fit before the first growth, if not specified */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private int[] items;
+    private int size;
+
+    /**
+     * Create an empty stack with the default capacity.
+     */
+    public IntStack() {
+        this( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Create an empty stack that can hold the given number of values
+     * before it has to grow.
+     * @param capacity the number of values to preallocate room for
+     */
+    public IntStack( int capacity ) {
+        this.items = new int[ Math.max( capacity, 1 ) ];
+        this.size = 0;
+    }
+
+    /**
+     * Put a value on top of the stack.
+     * @param value the value to be pushed
+     */
+    public void push( int value ) {
+        if ( size == items.length ) {
+            items = Arrays.copyOf( items, items.length * 2 );
+        }
+        items[ size++ ] = value;
+    }
+
+    /**
+     * Remove the top value from the stack.
+     * @return the value that was on top
+     * @throws EmptyStackException if there is nothing on the stack
+     */
+    public int pop() {
+        if ( size == 0 ) {
+            throw new EmptyStackException();
+        }
+        return items[ --size ];
+    }
+
+    /**
+     * Look at the top value without removing it.
+     * @return the value on top
+     * @throws EmptyStackException if there is nothing on the stack
+     */
+    public int peek() {
+        if ( size == 0 ) {
+            throw new EmptyStackException();
+        }
+        return items[ size - 1 ];
+    }
+
+    /**
+     * @return how many values are on the stack
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true iff there are no values on the stack
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
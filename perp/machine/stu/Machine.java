@@ -1,10 +1,14 @@
 package perp.machine.stu;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
 
-import perp.Errors;
+import perp.OutputSink;
+import perp.PerpArithmeticException;
 import perp.SymbolTable;
+import perp.UnknownVariableException;
 
 /**
  * An abstraction of a computing machine that reads instructions
@@ -12,26 +16,42 @@ import perp.SymbolTable;
  * for variables (instead of general-purpose memory), and a
  * value stack on which calculations are performed.
  *
- * (Everything is static to avoid the need to master the subtleties
- * of nested class instantiation or to pass the symbol table and
- * stack into every instruction when it executes.)
+ * Each Machine instance holds the state of one run: its own value
+ * stack and symbol table. Instructions carry no run state, so a
+ * compiled program can be shared by any number of Machines, each
+ * executing it at the same time on its own thread.
  *
- * THIS CLASS IS INCOMPLETE. The student must add code to it.
+ * Programs are linked (see {@link Program}) before they run, so the
+ * symbol table is really a frame of ints indexed by slot number; the
+ * variable names are only used to report errors and to dump the
+ * variables at the end. A Machine keeps its variables from one run to
+ * the next as long as the programs are linked with the same
+ * {@link SlotTable}; a program linked with another one starts with no
+ * variables.
  *
  * @author James Heliotis
  * @author Phuvit Kittisapkajon
  */
 public class Machine {
 
-    /** Do not instatiate this class. */
-    private Machine() {}
-
     public static interface Instruction {
         /**
-         * Run this instruction on the Machine, using the Machine's
+         * Run this instruction on the given Machine, using that Machine's
          * value stack and symbol table.
+         * @param machine the Machine whose state this instruction changes
+         */
+        void execute( Machine machine );
+
+        /**
+         * Produce the form of this instruction that refers to variables
+         * by their slots in the given table. Instructions that do not
+         * use variables are returned unchanged.
+         * @param slots the table assigning slots to variable names
+         * @return an instruction ready to be run on a Machine
          */
-        void execute();
+        default Instruction link( SlotTable slots ) {
+            return this;
+        }
 
         /**
          * Show the instruction using text so it can be understood
@@ -42,51 +62,285 @@ public class Machine {
         String toString();
     }
 
-    private static SymbolTable table = null;
-    private static Stack< Integer > stack = null;
+    private final IntStack stack;
+
+    /** variable values, indexed by slot */
+    private int[] frame;
+
+    /** which slots have been stored into */
+    private boolean[] defined;
+
+    /** the slots in the order they were first stored into */
+    private int[] definitionOrder;
+    private int definedCount;
+
+    /** variable names, indexed by slot, of which nameCount are known */
+    private String[] names;
+    private int nameCount;
+
+    /** the table the variables' slots come from, or null before a run */
+    private SlotTable slots;
+
+    /** where to record what runs execute, or null not to */
+    private MachineProfiler profiler;
+
+    /** where PRINT output goes */
+    private OutputSink out;
+
+    /**
+     * Create a Machine in a pristine state: an empty value stack and
+     * an empty symbol table.
+     */
+    public Machine() {
+        this( IntStack.DEFAULT_CAPACITY );
+    }
 
     /**
-     * Reset the Machine to a pristine state.
-     * @see Machine#execute
+     * Create a Machine in a pristine state, with its value stack
+     * preallocated to the given size.
+     * @param stackCapacity how many values the value stack should hold
+     *                      before it has to grow
      */
-    private static void reset() {
-        stack = new Stack<>();
-        table = new SymbolTable();
+    public Machine( int stackCapacity ) {
+        this.stack = new IntStack( stackCapacity );
+        this.frame = new int[ 0 ];
+        this.defined = new boolean[ 0 ];
+        this.definitionOrder = new int[ 0 ];
+        this.definedCount = 0;
+        this.names = new String[ 0 ];
+        this.nameCount = 0;
+        this.slots = null;
+        this.profiler = null;
+        this.out = OutputSink.standard();
+    }
+
+    /**
+     * Execute in order each instruction in the program, on this Machine.
+     * Nothing is printed except by the program's own instructions, and
+     * the Machine's output is flushed at the end.
+     * @param program a list of Machine instructions; it is linked first
+     *                if it is not already a {@link Program}
+     * @throws perp.PerpException if the program uses a variable that has
+     *         not been assigned or does impossible arithmetic
+     */
+    public void run( List< Instruction > program ) {
+        Program linked = Program.link( program );
+        prepare( linked );
+        try {
+            if ( profiler != null ) {
+                profiler.run( this, linked.code() );
+                return;
+            }
+            for ( Instruction instr: linked.code() ) {
+                instr.execute( this );
+            }
+        }
+        finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Send this Machine's output, that of PRINT and of the symbol
+     * table it reports, somewhere other than standard output.
+     * @param out where the output goes
+     */
+    public void setOutput( OutputSink out ) {
+        this.out = out;
+    }
+
+    /**
+     * Profile, or stop profiling, the programs this Machine runs.
+     * @param profiler where to record the instructions executed, or
+     *                 null to run without recording anything
+     */
+    public void setProfiler( MachineProfiler profiler ) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Make sure the variable frame has room for every slot the
+     * program uses. If the program's slots come from a different table
+     * than the last program's, the variables of the last one are
+     * forgotten, since their slots mean other variables now.
+     * @param program the program about to be run
+     */
+    private void prepare( Program program ) {
+        int slotCount = program.slotCount();
+        if ( program.slotTable() != slots ) {
+            slots = program.slotTable();
+            Arrays.fill( defined, false );
+            definedCount = 0;
+            nameCount = 0;
+        }
+        if ( slotCount > frame.length ) {
+            int size = Math.max( slotCount, frame.length * 2 );
+            frame = Arrays.copyOf( frame, size );
+            defined = Arrays.copyOf( defined, size );
+            definitionOrder = Arrays.copyOf( definitionOrder, size );
+        }
+        if ( slotCount > nameCount ) {
+            names = program.names();
+            nameCount = slotCount;
+        }
+    }
+
+    /**
+     * Fetch a variable's value.
+     * @param slot the variable's slot
+     * @return the variable's value
+     */
+    private int load( int slot ) {
+        if ( !defined[ slot ] ) {
+            throw new UnknownVariableException( names[ slot ] );
+        }
+        return frame[ slot ];
+    }
+
+    /**
+     * Assign the first, or a new, value to a variable.
+     * @param slot the variable's slot
+     * @param value the variable's new value
+     */
+    private void store( int slot, int value ) {
+        if ( !defined[ slot ] ) {
+            defined[ slot ] = true;
+            definitionOrder[ definedCount++ ] = slot;
+        }
+        frame[ slot ] = value;
+    }
+
+    /**
+     * @return how many values are currently on this Machine's stack
+     */
+    public int stackSize() {
+        return stack.size();
+    }
+
+    /**
+     * Copy this Machine's variables into a symbol table, in the order
+     * in which they were first assigned.
+     * @return a new SymbolTable holding every variable assigned so far,
+     *         with this Machine's output
+     */
+    public SymbolTable getSymbolTable() {
+        SymbolTable table = new SymbolTable( out );
+        for ( int i = 0; i < definedCount; ++i ) {
+            int slot = definitionOrder[ i ];
+            table.put( names[ slot ], frame[ slot ] );
+        }
+        return table;
     }
 
     /**
      * Generate a listing of a program on standard output by
      * calling the toString() method on each instruction
-     * contained therein, in order.
+     * contained therein, in order. The listing is put together in one
+     * buffer, sized beforehand, and printed all at once.
      *
      * @param program the list of instructions in the program
+     * @see #listInstructions(List, Appendable)
      */
     public static void displayInstructions(
             List< Machine.Instruction > program ) {
         System.out.println( "\nCompiled code:" );
+        StringBuilder text = new StringBuilder( listingLength( program ) );
+        listInstructions( program, text );
+        System.out.println( text );
+    }
+
+    /**
+     * Write a listing of a program, one instruction per line, each
+     * shown by its toString() method and ended by '\n'.
+     *
+     * @param program the list of instructions in the program
+     * @param out where the listing goes; for instance a StringBuilder of
+     *            {@link #listingLength(List)} characters, or a
+     *            {@link perp.BufferedSink} for a file
+     * @throws UncheckedIOException if out cannot be written
+     */
+    public static void listInstructions( List< Machine.Instruction > program,
+                                         Appendable out ) {
+        try {
+            for ( Machine.Instruction instr: program ) {
+                out.append( instr.toString() ).append( '\n' );
+            }
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+    }
+
+    /**
+     * Count the characters of a program's listing without making it.
+     * The common instructions are measured from their parts; only the
+     * rest are turned into text to be measured.
+     *
+     * @param program the list of instructions in the program
+     * @return how many characters {@link #listInstructions} writes
+     */
+    public static int listingLength( List< Machine.Instruction > program ) {
+        int length = 0;
         for ( Machine.Instruction instr: program ) {
-            System.out.println( instr );
+            if ( instr instanceof PushConst ) {
+                length += "PUSH\t".length() +
+                          OutputSink.digitCount(
+                                  ( (PushConst)instr ).getConstant() );
+            }
+            else if ( instr instanceof Load ) {
+                length += "LOAD\t".length() +
+                          ( (Load)instr ).getName().length();
+            }
+            else if ( instr instanceof Store ) {
+                length += "STORE\t".length() +
+                          ( (Store)instr ).getName().length();
+            }
+            else {
+                length += instr.toString().length();
+            }
+            ++length;
         }
-        System.out.println();
+        return length;
     }
 
     /**
      * Run a "compiled" program by executing in order each instruction
      * contained therein.
      * Report on the final size of the stack (should normally be empty)
-     * and the contents of the symbol table.
+     * and the contents of the symbol table. If profiling is enabled (see
+     * {@link MachineProfiler}), also report the run's instruction
+     * profile, and add it to the shared profiler's.
      * @param program a list of Machine instructions
      */
     public static void execute( List< Instruction > program ) {
-        reset();
+        execute( program, IntStack.DEFAULT_CAPACITY );
+    }
+
+    /**
+     * Run a "compiled" program, as in {@link #execute(List)}, with the
+     * value stack preallocated to the given size. If the caller knows
+     * the program's maximum stack depth, passing it here means the stack
+     * never has to grow during execution.
+     * @param program a list of Machine instructions
+     * @param stackCapacity the number of values to preallocate room for
+     */
+    public static void execute( List< Instruction > program,
+                                int stackCapacity ) {
+        Machine machine = new Machine( stackCapacity );
+        MachineProfiler shared = MachineProfiler.shared();
+        MachineProfiler profiler = shared == null ?
+                null : new MachineProfiler( shared.getSampleInterval() );
+        machine.setProfiler( profiler );
         System.out.println("Executing compiled code...");
-        for ( Instruction instr: program ) {
-            instr.execute();
-        }
+        machine.run( program );
         System.out.println( "Machine: execution ended with " +
-                stack.size() + " items left on the stack." );
+                machine.stackSize() + " items left on the stack." );
+        if ( profiler != null ) {
+            System.out.print( profiler.summary() );
+            shared.add( profiler );
+        }
         System.out.println();
-        table.dump();
+        machine.getSymbolTable().dump();
     }
 
     /**
@@ -97,10 +351,10 @@ public class Machine {
          * Run the microsteps for the ADD instruction.
          */
         @Override
-        public void execute() {
-            int op2 = stack.pop();
-            int op1 = stack.pop();
-            stack.push( op1 + op2 );
+        public void execute( Machine machine ) {
+            int op2 = machine.stack.pop();
+            int op1 = machine.stack.pop();
+            machine.stack.push( op1 + op2 );
         }
 
         /**
@@ -118,22 +372,56 @@ public class Machine {
      */
     public static class Store implements Instruction {
         /** stores name of target variable */
-        private String name;
+        private final String name;
+
+        /** the target variable's slot, or -1 if not yet linked */
+        private final int slot;
 
         /**
          * Create a STORE instruction
          * @param ident the name of the target variable
          */
         public Store( String ident ) {
+            this( ident, -1 );
+        }
+
+        /**
+         * Create a linked STORE instruction
+         * @param ident the name of the target variable
+         * @param slot the target variable's slot
+         */
+        public Store( String ident, int slot ) {
             this.name = ident;
+            this.slot = slot;
         }
+
+        /**
+         * @return the name of the target variable
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the target variable's slot, or -1 if not yet linked
+         */
+        public int getSlot() {
+            return this.slot;
+        }
+
         /**
          * Run the microsteps for the STORE instruction.
          */
         @Override
-        public void execute() {
-            table.put( this.name, stack.pop() );
+        public void execute( Machine machine ) {
+            machine.store( this.slot, machine.stack.pop() );
+        }
+
+        @Override
+        public Instruction link( SlotTable slots ) {
+            return new Store( this.name, slots.slotOf( this.name ) );
         }
+
         /**
          * Show the STORE instruction as plain text.
          * @return "STORE" followed by the target variable name
@@ -158,10 +446,10 @@ public class Machine {
          * Run this instruction on the Machine, using the Machine's value stack and symbol table.
          */
         @Override
-        public void execute() {
-            int op2 = stack.pop();
-            int op1 = stack.pop();
-            stack.push(op1 - op2);
+        public void execute(Machine machine) {
+            int op2 = machine.stack.pop();
+            int op1 = machine.stack.pop();
+            machine.stack.push(op1 - op2);
         }
 
         /**
@@ -181,10 +469,10 @@ public class Machine {
          * Run this instruction on the Machine, using the Machine's value stack and symbol table.
          */
         @Override
-        public void execute() {
-            int op2 = stack.pop();
-            int op1 = stack.pop();
-            stack.push(op1 * op2);
+        public void execute(Machine machine) {
+            int op2 = machine.stack.pop();
+            int op1 = machine.stack.pop();
+            machine.stack.push(op1 * op2);
         }
 
         /**
@@ -204,13 +492,13 @@ public class Machine {
          * Run this instruction on the Machine, using the Machine's value stack and symbol table.
          */
         @Override
-        public void execute() {
-            int op2 = stack.pop();
-            int op1 = stack.pop();
+        public void execute(Machine machine) {
+            int op2 = machine.stack.pop();
+            int op1 = machine.stack.pop();
             if (op2 == 0) {
-                Errors.error("Cannot perform division operation because the denominator is 0 ", 0);
+                throw new PerpArithmeticException("Cannot perform division operation because the denominator is 0 ", 0);
             }
-            stack.push( op1 / op2);
+            machine.stack.push( op1 / op2);
         }
 
         /**
@@ -231,9 +519,9 @@ public class Machine {
          * Run this instruction on the Machine, using the Machine's value stack and symbol table.
          */
         @Override
-        public void execute() {
-            int op = stack.pop();
-            stack.push(-op);
+        public void execute(Machine machine) {
+            int op = machine.stack.pop();
+            machine.stack.push(-op);
         }
 
         /**
@@ -254,12 +542,12 @@ public class Machine {
          * Run this instruction on the Machine, using the Machine's value stack and symbol table.
          */
         @Override
-        public void execute() {
-            int op = stack.pop();
+        public void execute(Machine machine) {
+            int op = machine.stack.pop();
             if (op < 0) {
-                Errors.error("Can't do Square Root on a Negative Integer", op);
+                throw new PerpArithmeticException("Can't do Square Root on a Negative Integer", op);
             } else {
-                stack.push((int) Math.sqrt(op));
+                machine.stack.push((int) Math.sqrt(op));
             }
         }
 
@@ -272,17 +560,22 @@ public class Machine {
     }
 
     public static class PushConst implements Instruction {
-        private int constant;
+        private final int constant;
 
         public PushConst(int constant){
             this.constant = constant;
         }
 
+        /**
+         * @return the value this instruction pushes
+         */
+        public int getConstant() {return constant;}
+
         /**
          * Run this instruction on the Machine, using the Machine's value stack and symbol table.
          */
         @Override
-        public void execute() {stack.push(constant);}
+        public void execute(Machine machine) {machine.stack.push(constant);}
 
         /**
          * Show the instruction using text so it can be understood by a person.
@@ -299,17 +592,38 @@ public class Machine {
      */
     public static class Load implements Instruction {
 
-        private String ident;
+        private final String ident;
+
+        //the variable's slot, or -1 if not yet linked
+        private final int slot;
 
         public Load(String ident){
+            this(ident, -1);
+        }
+
+        public Load(String ident, int slot){
             this.ident = ident;
+            this.slot = slot;
         }
 
+        /**
+         * @return the name of the variable this instruction loads
+         */
+        public String getName() {return ident;}
+
+        /**
+         * @return the variable's slot, or -1 if this instruction has not been linked
+         */
+        public int getSlot() {return slot;}
+
         /**
          * Run this instruction on the Machine, using the Machine's value stack and symbol table.
          */
         @Override
-        public void execute() {stack.push(table.get(ident));}
+        public void execute(Machine machine) {machine.stack.push(machine.load(slot));}
+
+        @Override
+        public Instruction link(SlotTable slots) {return new Load(ident, slots.slotOf(ident));}
 
         /**
          * Show the instruction using text so it can be understood by a person.
@@ -318,6 +632,212 @@ public class Machine {
         public String toString(){return "LOAD\t" + ident;}
     }
 
+    /**
+     * The DUP instruction
+     */
+    public static class Duplicate implements Instruction {
+
+        public Duplicate(){}
+
+        /**
+         * Push a second copy of the value on top of the stack.
+         */
+        @Override
+        public void execute(Machine machine) {machine.stack.push(machine.stack.peek());}
+
+        /**
+         * Show the instruction using text so it can be understood by a person.
+         * @return a short string describing what this instruction will do
+         */
+        public String toString(){return "DUP";}
+    }
+
+    //
+    // Superinstructions: each does the work of a common sequence of the
+    // instructions above in one dispatch. See perp.machine.SuperinstructionSelector.
+    //
+
+    /**
+     * The LOAD_LOAD_ADD instruction: LOAD x; LOAD y; ADD
+     */
+    public static class LoadLoadAdd implements Instruction {
+
+        private final String left;
+        private final String right;
+
+        //the variables' slots, or -1 if not yet linked
+        private final int leftSlot;
+        private final int rightSlot;
+
+        public LoadLoadAdd(String left, String right){
+            this(left, -1, right, -1);
+        }
+
+        public LoadLoadAdd(String left, int leftSlot, String right, int rightSlot){
+            this.left = left;
+            this.leftSlot = leftSlot;
+            this.right = right;
+            this.rightSlot = rightSlot;
+        }
+
+        /**
+         * @return the name of the left operand
+         */
+        public String getLeftName() {return left;}
+
+        /**
+         * @return the name of the right operand
+         */
+        public String getRightName() {return right;}
+
+        /**
+         * @return the left operand's slot, or -1 if this instruction has not been linked
+         */
+        public int getLeftSlot() {return leftSlot;}
+
+        /**
+         * @return the right operand's slot, or -1 if this instruction has not been linked
+         */
+        public int getRightSlot() {return rightSlot;}
+
+        /**
+         * Push the sum of the two variables.
+         */
+        @Override
+        public void execute(Machine machine) {
+            int op1 = machine.load(leftSlot);
+            machine.stack.push(op1 + machine.load(rightSlot));
+        }
+
+        @Override
+        public Instruction link(SlotTable slots) {
+            return new LoadLoadAdd(left, slots.slotOf(left), right, slots.slotOf(right));
+        }
+
+        /**
+         * Show the instruction using text so it can be understood by a person.
+         * @return a short string describing what this instruction will do
+         */
+        public String toString(){return "LOAD_LOAD_ADD\t" + left + " " + right;}
+    }
+
+    /**
+     * The ADD_CONST instruction: PUSH c; ADD
+     */
+    public static class AddConst implements Instruction {
+        private final int constant;
+
+        public AddConst(int constant){
+            this.constant = constant;
+        }
+
+        /**
+         * @return the value this instruction adds
+         */
+        public int getConstant() {return constant;}
+
+        /**
+         * Add the constant to the value on top of the stack.
+         */
+        @Override
+        public void execute(Machine machine) {machine.stack.push(machine.stack.pop() + constant);}
+
+        /**
+         * Show the instruction using text so it can be understood by a person.
+         * @return a short string describing what this instruction will do
+         */
+        public String toString(){return "ADD_CONST\t" + constant;}
+    }
+
+    /**
+     * The MUL_CONST instruction: PUSH c; MUL
+     */
+    public static class MulConst implements Instruction {
+        private final int constant;
+
+        public MulConst(int constant){
+            this.constant = constant;
+        }
+
+        /**
+         * @return the value this instruction multiplies by
+         */
+        public int getConstant() {return constant;}
+
+        /**
+         * Multiply the value on top of the stack by the constant.
+         */
+        @Override
+        public void execute(Machine machine) {machine.stack.push(machine.stack.pop() * constant);}
+
+        /**
+         * Show the instruction using text so it can be understood by a person.
+         * @return a short string describing what this instruction will do
+         */
+        public String toString(){return "MUL_CONST\t" + constant;}
+    }
+
+    /**
+     * The MOVE instruction: LOAD x; STORE y
+     */
+    public static class Move implements Instruction {
+
+        private final String from;
+        private final String to;
+
+        //the variables' slots, or -1 if not yet linked
+        private final int fromSlot;
+        private final int toSlot;
+
+        public Move(String from, String to){
+            this(from, -1, to, -1);
+        }
+
+        public Move(String from, int fromSlot, String to, int toSlot){
+            this.from = from;
+            this.fromSlot = fromSlot;
+            this.to = to;
+            this.toSlot = toSlot;
+        }
+
+        /**
+         * @return the name of the variable copied from
+         */
+        public String getFromName() {return from;}
+
+        /**
+         * @return the name of the variable copied to
+         */
+        public String getToName() {return to;}
+
+        /**
+         * @return the source variable's slot, or -1 if this instruction has not been linked
+         */
+        public int getFromSlot() {return fromSlot;}
+
+        /**
+         * @return the target variable's slot, or -1 if this instruction has not been linked
+         */
+        public int getToSlot() {return toSlot;}
+
+        /**
+         * Copy one variable into another without using the stack.
+         */
+        @Override
+        public void execute(Machine machine) {machine.store(toSlot, machine.load(fromSlot));}
+
+        @Override
+        public Instruction link(SlotTable slots) {
+            return new Move(from, slots.slotOf(from), to, slots.slotOf(to));
+        }
+
+        /**
+         * Show the instruction using text so it can be understood by a person.
+         * @return a short string describing what this instruction will do
+         */
+        public String toString(){return "MOVE\t" + from + " " + to;}
+    }
+
     /**
      * The PRINT instruction
      */
@@ -329,8 +849,8 @@ public class Machine {
          *  Output "*** " followed by the value popped from the stack.
          */
         @Override
-        public void execute() {
-            System.out.println("*** " + stack.pop());
+        public void execute(Machine machine) {
+            machine.out.println("*** ", machine.stack.pop());
         }
 
         /**
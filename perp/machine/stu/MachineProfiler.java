@@ -0,0 +1,359 @@
+package perp.machine.stu;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Execution counts and timings, per kind of instruction, for programs
+ * run on a {@link Machine}. Every instruction executed is counted; one
+ * in every {@link #getSampleInterval() sample interval} is also timed
+ * with System.nanoTime, which costs far more than most instructions do,
+ * so the timings are only sampled.
+ *
+ * A Machine is profiled only when it has been given a profiler with
+ * {@link Machine#setProfiler(MachineProfiler)}; otherwise it runs its
+ * usual loop and pays nothing but one test per program. Profiling is
+ * turned on for {@link Machine#execute(List)} by {@link #enable()} or
+ * by running with -Dperp.profile=true. That creates the shared
+ * profiler, which is registered with the platform MBean server under
+ * {@value #OBJECT_NAME} and accumulates the figures of every run.
+ *
+ * A profiler may be shared by Machines running on several threads:
+ * each run keeps its own figures and adds them in when it finishes.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public final class MachineProfiler implements MachineProfilerMXBean {
+
+    /** the JMX name of the shared profiler */
+    public static final String OBJECT_NAME =
+            "perp.machine:type=MachineProfiler";
+
+    /** how often instructions are timed unless told otherwise */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+    private static MachineProfiler shared =
+            Boolean.getBoolean( "perp.profile" ) ? register() : null;
+
+    private volatile int sampleInterval;
+    private long runs = 0;
+
+    /** the instruction kinds seen so far, and their indices */
+    private final List< String > kinds = new ArrayList<>();
+    private final Map< Class< ? >, Integer > index = new HashMap<>();
+
+    /** per kind: executions, timed executions, and their total time */
+    private long[] counts = new long[ 0 ];
+    private long[] samples = new long[ 0 ];
+    private long[] nanos = new long[ 0 ];
+
+    /** the total time of a timing with nothing in it, once per sample */
+    private long timerNanos = 0;
+    private long timerSamples = 0;
+
+    /**
+     * Create a profiler with nothing recorded, which times one
+     * execution in {@link #DEFAULT_SAMPLE_INTERVAL}.
+     */
+    public MachineProfiler() {
+        this( DEFAULT_SAMPLE_INTERVAL );
+    }
+
+    /**
+     * Create a profiler with nothing recorded.
+     * @param sampleInterval time one execution in this many; at least 1
+     */
+    public MachineProfiler( int sampleInterval ) {
+        setSampleInterval( sampleInterval );
+    }
+
+    /**
+     * Turn on profiling for {@link Machine#execute(List)}, creating and
+     * registering the shared profiler if that has not been done yet.
+     * @return the shared profiler
+     */
+    public static synchronized MachineProfiler enable() {
+        if ( shared == null ) {
+            shared = register();
+        }
+        return shared;
+    }
+
+    /**
+     * @return the shared profiler, or null if profiling is off
+     */
+    public static synchronized MachineProfiler shared() {
+        return shared;
+    }
+
+    /**
+     * @return a new profiler, registered with the platform MBean server
+     */
+    private static MachineProfiler register() {
+        MachineProfiler profiler = new MachineProfiler();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    profiler, new ObjectName( OBJECT_NAME ) );
+        }
+        catch( JMException jme ) {
+            throw new IllegalStateException(
+                    "Cannot register " + OBJECT_NAME, jme );
+        }
+        return profiler;
+    }
+
+    /**
+     * Run a linked program on a Machine, counting every instruction and
+     * timing one in every sample interval. Each timing is followed by an
+     * empty one, so that what the timer itself costs, in this same
+     * compiled loop, can be taken off. The figures are added to
+     * this profiler's even if the run ends early.
+     * @param machine the Machine to run the instructions on
+     * @param code the linked instructions
+     */
+    void run( Machine machine, Machine.Instruction[] code ) {
+        int[] kind = new int[ code.length ];
+        int kindCount;
+        synchronized ( this ) {
+            for ( int pc = 0; pc < code.length; ++pc ) {
+                kind[ pc ] = kindOf( code[ pc ].getClass() );
+            }
+            kindCount = kinds.size();
+        }
+        long[] runCounts = new long[ kindCount ];
+        long[] runSamples = new long[ kindCount ];
+        long[] runNanos = new long[ kindCount ];
+        long runTimerNanos = 0;
+        int interval = sampleInterval;
+        int countdown = interval;
+        try {
+            for ( int pc = 0; pc < code.length; ++pc ) {
+                int k = kind[ pc ];
+                ++runCounts[ k ];
+                if ( --countdown == 0 ) {
+                    countdown = interval;
+                    long start = System.nanoTime();
+                    code[ pc ].execute( machine );
+                    long end = System.nanoTime();
+                    runTimerNanos += System.nanoTime() - end;
+                    runNanos[ k ] += end - start;
+                    ++runSamples[ k ];
+                }
+                else {
+                    code[ pc ].execute( machine );
+                }
+            }
+        }
+        finally {
+            synchronized ( this ) {
+                ++runs;
+                for ( int k = 0; k < kindCount; ++k ) {
+                    counts[ k ] += runCounts[ k ];
+                    samples[ k ] += runSamples[ k ];
+                    nanos[ k ] += runNanos[ k ];
+                    timerSamples += runSamples[ k ];
+                }
+                timerNanos += runTimerNanos;
+            }
+        }
+    }
+
+    /**
+     * @param type a class of instruction
+     * @return its index in this profiler's tables, which are grown for
+     *         it the first time it is seen
+     */
+    private int kindOf( Class< ? > type ) {
+        Integer k = index.get( type );
+        if ( k == null ) {
+            k = kindOf( type.getSimpleName() );
+            index.put( type, k );
+        }
+        return k;
+    }
+
+    /**
+     * @param name the name of a kind of instruction
+     * @return its index in this profiler's tables, which are grown for
+     *         it the first time it is seen
+     */
+    private int kindOf( String name ) {
+        int k = kinds.indexOf( name );
+        if ( k < 0 ) {
+            k = kinds.size();
+            kinds.add( name );
+            counts = Arrays.copyOf( counts, k + 1 );
+            samples = Arrays.copyOf( samples, k + 1 );
+            nanos = Arrays.copyOf( nanos, k + 1 );
+        }
+        return k;
+    }
+
+    /**
+     * Add another profiler's figures to this one's.
+     * @param other the profiler to add in; it is not changed
+     */
+    public void add( MachineProfiler other ) {
+        if ( other == this ) {
+            throw new IllegalArgumentException( "Cannot add to itself" );
+        }
+        List< String > otherKinds;
+        long otherRuns, otherTimerNanos, otherTimerSamples;
+        long[] otherCounts, otherSamples, otherNanos;
+        synchronized ( other ) {
+            otherKinds = new ArrayList<>( other.kinds );
+            otherRuns = other.runs;
+            otherTimerNanos = other.timerNanos;
+            otherTimerSamples = other.timerSamples;
+            otherCounts = other.counts.clone();
+            otherSamples = other.samples.clone();
+            otherNanos = other.nanos.clone();
+        }
+        synchronized ( this ) {
+            runs += otherRuns;
+            timerNanos += otherTimerNanos;
+            timerSamples += otherTimerSamples;
+            for ( int i = 0; i < otherKinds.size(); ++i ) {
+                int k = kindOf( otherKinds.get( i ) );
+                counts[ k ] += otherCounts[ i ];
+                samples[ k ] += otherSamples[ i ];
+                nanos[ k ] += otherNanos[ i ];
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    @Override
+    public synchronized long getTotalInstructions() {
+        long total = 0;
+        for ( long count: counts ) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized Map< String, Long > getInstructionCounts() {
+        return byKind( counts );
+    }
+
+    @Override
+    public synchronized Map< String, Long > getSampleCounts() {
+        return byKind( samples );
+    }
+
+    @Override
+    public synchronized Map< String, Double > getMeanNanos() {
+        Map< String, Double > means = new TreeMap<>();
+        for ( int k = 0; k < kinds.size(); ++k ) {
+            if ( samples[ k ] > 0 ) {
+                means.put( kinds.get( k ), mean( k ) );
+            }
+        }
+        return means;
+    }
+
+    /**
+     * @param k a kind of instruction that has been timed
+     * @return the mean time of its timed executions, less the cost of
+     *         timing them, in nanoseconds
+     */
+    private double mean( int k ) {
+        return Math.max( 0, (double)nanos[ k ] / samples[ k ] - timer() );
+    }
+
+    /**
+     * @return the mean time of an empty timing, in nanoseconds
+     */
+    private double timer() {
+        return timerSamples == 0 ? 0 : (double)timerNanos / timerSamples;
+    }
+
+    /**
+     * @param figures one figure per kind
+     * @return the figures keyed by kind name, in name order
+     */
+    private Map< String, Long > byKind( long[] figures ) {
+        Map< String, Long > map = new TreeMap<>();
+        for ( int k = 0; k < kinds.size(); ++k ) {
+            map.put( kinds.get( k ), figures[ k ] );
+        }
+        return map;
+    }
+
+    @Override
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    @Override
+    public void setSampleInterval( int interval ) {
+        if ( interval < 1 ) {
+            throw new IllegalArgumentException(
+                    "Sample interval must be at least 1: " + interval );
+        }
+        sampleInterval = interval;
+    }
+
+    @Override
+    public synchronized void reset() {
+        runs = 0;
+        Arrays.fill( counts, 0 );
+        Arrays.fill( samples, 0 );
+        Arrays.fill( nanos, 0 );
+        timerNanos = 0;
+        timerSamples = 0;
+    }
+
+    /**
+     * Describe what has been recorded: for each kind of instruction, in
+     * order of estimated total time (then of count), how often it ran,
+     * how many of those runs were timed, their mean time, and the
+     * estimated total time.
+     * @return a table, one line per kind of instruction
+     */
+    public synchronized String summary() {
+        Integer[] order = new Integer[ kinds.size() ];
+        double[] estimate = new double[ kinds.size() ];
+        double totalEstimate = 0;
+        for ( int k = 0; k < order.length; ++k ) {
+            order[ k ] = k;
+            estimate[ k ] = samples[ k ] == 0 ? 0 : mean( k ) * counts[ k ];
+            totalEstimate += estimate[ k ];
+        }
+        Arrays.sort( order, ( a, b ) -> estimate[ a ] != estimate[ b ] ?
+                                        Double.compare( estimate[ b ],
+                                                        estimate[ a ] ) :
+                                        Long.compare( counts[ b ],
+                                                      counts[ a ] ) );
+        StringBuilder summary = new StringBuilder( String.format(
+                "Instruction profile, 1 in %d timed, less %.1f ns" +
+                " for the timer:\n" +
+                "  %-14s %12s %10s %10s %12s\n",
+                sampleInterval, timer(),
+                "instruction", "count", "timed", "mean ns", "est. ms" ) );
+        for ( int k: order ) {
+            summary.append( String.format(
+                    "  %-14s %12d %10d %10s %12.3f\n",
+                    kinds.get( k ), counts[ k ], samples[ k ],
+                    samples[ k ] == 0 ?
+                            "-" : String.format( "%.1f", mean( k ) ),
+                    estimate[ k ] / 1e6 ) );
+        }
+        summary.append( String.format( "  %-14s %12d %10s %10s %12.3f\n",
+                                       "total", getTotalInstructions(),
+                                       "", "", totalEstimate / 1e6 ) );
+        return summary.toString();
+    }
+}
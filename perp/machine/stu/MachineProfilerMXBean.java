@@ -0,0 +1,57 @@
+package perp.machine.stu;
+
+import java.util.Map;
+
+/**
+ * The management interface of a {@link MachineProfiler}, as seen
+ * through JMX (for instance in JConsole, under
+ * {@value MachineProfiler#OBJECT_NAME}). Instruction kinds are named
+ * by their Machine classes: Add, Load, Store, Divide, and so on.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public interface MachineProfilerMXBean {
+
+    /**
+     * @return how many programs have been run with profiling
+     */
+    long getRuns();
+
+    /**
+     * @return how many instructions have been executed in all
+     */
+    long getTotalInstructions();
+
+    /**
+     * @return how many times each kind of instruction has been executed
+     */
+    Map< String, Long > getInstructionCounts();
+
+    /**
+     * @return how many executions of each kind of instruction were timed
+     */
+    Map< String, Long > getSampleCounts();
+
+    /**
+     * @return the mean time of the timed executions of each kind of
+     *         instruction, less the cost of timing them, in nanoseconds
+     */
+    Map< String, Double > getMeanNanos();
+
+    /**
+     * @return one execution in how many is timed
+     */
+    int getSampleInterval();
+
+    /**
+     * Change how often instructions are timed, starting with the
+     * next program run.
+     * @param interval time one execution in this many; at least 1
+     */
+    void setSampleInterval( int interval );
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset();
+}
@@ -0,0 +1,117 @@
+package perp.machine.stu;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A linked, immutable Machine program. Linking gives every variable
+ * the program mentions a slot in the Machine's variable frame and
+ * replaces each LOAD and STORE with one that uses that slot. The
+ * variable names are kept only for symbol table dumps and error
+ * messages.
+ *
+ * A Program is a read-only List, so it can be handed to any code that
+ * expects a List of instructions, and shared between threads.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public final class Program extends AbstractList< Machine.Instruction >
+        implements RandomAccess {
+
+    private final Machine.Instruction[] code;
+
+    /** the table the program was linked with */
+    private final SlotTable slots;
+
+    /** variable names indexed by slot; may be longer than slotCount */
+    private final String[] names;
+    private final int slotCount;
+
+    private Program( Machine.Instruction[] code, SlotTable slots ) {
+        this.code = code;
+        this.slots = slots;
+        this.names = slots.sharedNames();
+        this.slotCount = slots.size();
+    }
+
+    /**
+     * Link a list of instructions with a slot table of its own.
+     * @param program the instructions, in execution order
+     * @return the linked program; program itself if it is already linked
+     */
+    public static Program link( List< Machine.Instruction > program ) {
+        if ( program instanceof Program ) {
+            return (Program)program;
+        }
+        return link( program, new SlotTable() );
+    }
+
+    /**
+     * Link a list of instructions using the given slot table. Sharing
+     * one slot table among several programs makes them agree on where
+     * each variable lives, so they can run one after another on the
+     * same Machine.
+     * @param program the instructions, in execution order
+     * @param slots the slot table to look up and add variables in
+     * @return the linked program
+     */
+    public static Program link( List< Machine.Instruction > program,
+                                SlotTable slots ) {
+        Machine.Instruction[] code = new Machine.Instruction[ program.size() ];
+        int i = 0;
+        for ( Machine.Instruction instr: program ) {
+            code[ i++ ] = instr.link( slots );
+        }
+        return new Program( code, slots );
+    }
+
+    @Override
+    public Machine.Instruction get( int index ) {
+        return code[ index ];
+    }
+
+    @Override
+    public int size() {
+        return code.length;
+    }
+
+    /**
+     * @return how many variable slots a Machine needs to run this program
+     */
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /**
+     * @param slot a slot number less than slotCount()
+     * @return the name of the variable that lives in that slot
+     */
+    public String nameOf( int slot ) {
+        return names[ slot ];
+    }
+
+    /**
+     * @return the instructions (not a copy)
+     */
+    Machine.Instruction[] code() {
+        return code;
+    }
+
+    /**
+     * @return the slot table the program was linked with; programs
+     *         linked with the same one agree on every variable's slot
+     */
+    SlotTable slotTable() {
+        return slots;
+    }
+
+    /**
+     * @return the variable names, indexed by slot (not a copy, and
+     *         possibly longer than slotCount())
+     */
+    String[] names() {
+        return names;
+    }
+}
@@ -0,0 +1,72 @@
+package perp.machine.stu;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compile-time map from variable names to the dense integer slots
+ * of a Machine's variable frame. Names are only consulted while a
+ * program is being linked; at run time LOAD and STORE index the frame
+ * directly.
+ *
+ * @author James Heliotis
+ * @author Phuvit Kittisapkajon
+ */
+public class SlotTable {
+
+    private final Map< String, Integer > slots = new HashMap<>();
+    /** names indexed by slot; only the first size entries are used */
+    private String[] names = new String[ 8 ];
+    private int size = 0;
+
+    /**
+     * Create an empty slot table.
+     */
+    public SlotTable() {}
+
+    /**
+     * Find the slot of a variable, assigning the next free slot
+     * the first time the variable is seen.
+     * @param ident the variable's name
+     * @return the variable's slot number
+     */
+    public int slotOf( String ident ) {
+        Integer slot = slots.get( ident );
+        if ( slot == null ) {
+            if ( size == names.length ) {
+                names = Arrays.copyOf( names, size * 2 );
+            }
+            slot = size;
+            slots.put( ident, slot );
+            names[ size++ ] = ident;
+        }
+        return slot;
+    }
+
+    /**
+     * @return how many slots have been assigned
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param slot a slot number less than size()
+     * @return the name of the variable in that slot
+     */
+    public String nameOf( int slot ) {
+        return names[ slot ];
+    }
+
+    /**
+     * Get the names assigned so far without copying them. Slots added
+     * later either go into unused entries of the same array or into a
+     * new array, so the first size() entries of the result never change.
+     * @return an array whose first size() entries are the variable names,
+     *         indexed by slot
+     */
+    String[] sharedNames() {
+        return names;
+    }
+}
@@ -1,5 +1,6 @@
 package perp.tree;
 
+import java.util.ArrayList;
 import java.util.List;
 import perp.machine.stu.Machine;
 
@@ -12,18 +13,53 @@ import perp.machine.stu.Machine;
  * @author James Heliotis
  */
 public interface PerpNode {
+    /**
+     * Write the code rooted at this node, using infix format, to a
+     * buffer, stream or channel. Statements end in '\n'.
+     * @param out where the text goes
+     * @throws java.io.UncheckedIOException if out cannot be written
+     */
+    void infixDisplay( Appendable out );
+
+    /**
+     * Count the characters {@link #infixDisplay(Appendable)} writes,
+     * without writing them, so that a buffer of the right size can be
+     * made first.
+     * @return the length of the infix text for this node
+     */
+    int infixLength();
+
     /**
      * Show the code rooted at this node, using infix format,
-     * on standard output.
+     * on standard output. The text is put together in one buffer,
+     * sized beforehand, and printed all at once.
+     */
+    default void infixDisplay() {
+        StringBuilder text = new StringBuilder( infixLength() );
+        infixDisplay( text );
+        System.out.print( text );
+    }
+
+    /**
+     * Generate the instructions that, when executed, represent
+     * the intent of this PerpNode and its descendants, and add them
+     * to the end of a list. A whole program can be compiled into one
+     * list this way, sized beforehand, with nothing copied.
+     * @param code the list the Machine Instructions for this node go on
      */
-    void infixDisplay();
+    void emit( List< Machine.Instruction > code );
 
     /**
      * Generate a list of instructions that, when executed, represents
      * the intent of this PerpNode and its descendants.
      * @return the Machine Instructions for this node
+     * @see #emit(List)
      */
-    List<  Machine.Instruction> emit();
+    default List<  Machine.Instruction> emit() {
+        List< Machine.Instruction > code = new ArrayList<>();
+        emit( code );
+        return code;
+    }
 }
 
 
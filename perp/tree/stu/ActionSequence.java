@@ -32,27 +32,37 @@ public class ActionSequence implements ActionNode {
     }
 
     /**
-     * Show the infix displays of all children on standard output. The order is first-added to last-added.
+     * Write the infix displays of all children. The order is first-added to last-added.
+     * @param out where the text goes
      */
     @Override
-    public void infixDisplay() {
+    public void infixDisplay(Appendable out) {
         for (ActionNode n : actions) {
-            n.infixDisplay();
+            n.infixDisplay(out);
         }
+    }
 
+    /**
+     * @return the total length of the children's infix displays
+     */
+    @Override
+    public int infixLength() {
+        int length = 0;
+        for (ActionNode n : actions) {
+            length += n.infixLength();
+        }
+        return length;
     }
 
     @Override
     /**
-     * Create a list of instructions emitted by each child, from the first-added child to the last-added.
-     * @Return: mach - a list of Machine Instruction
+     * Add the instructions emitted by each child, from the first-added child to the last-added.
+     * @param code - where to add the Machine Instructions
      */
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> mach = new ArrayList<>();
+    public void emit(List<Machine.Instruction> code) {
         for (ActionNode n : actions){
-            mach.addAll(n.emit());
+            n.emit(code);
         }
-        return mach;
     }
 
     /**
@@ -1,12 +1,10 @@
 package perp.tree.stu;
 
-import com.sun.tools.doclets.formats.html.SourceToHTMLConverter;
 import perp.SymbolTable;
 import perp.machine.stu.Machine;
 import perp.tree.ActionNode;
 import perp.tree.ExpressionNode;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -33,28 +31,51 @@ public class Assignment implements ActionNode {
     }
 
     /**
-     * Show this assignment on standard output as a variable followed by an assignment arrow (":=")
-     * followed by the infix form of the RHS expression.
+     * @return the name of the variable that is getting a new value
+     */
+    public String getIdent() {
+        return ident;
+    }
+
+    /**
+     * @return the expression on the right-hand side
+     */
+    public ExpressionNode getRhs() {
+        return rhs;
+    }
+
+    /**
+     * Write this assignment as a variable followed by an assignment arrow (":=")
+     * followed by the infix form of the RHS expression, on a line of its own.
+     *
+     * @param out where the text goes
+     */
+    @Override
+    public void infixDisplay(Appendable out) {
+        TreeWalker.append(out, ident);
+        TreeWalker.append(out, " := ");
+        rhs.infixDisplay(out);
+        TreeWalker.append(out, "\n");
+    }
+
+    /**
+     * @return the length of this assignment's line, newline included
      */
     @Override
-    public void infixDisplay() {
-        System.out.print(ident + " := ");
-        rhs.infixDisplay();
-        System.out.println();
+    public int infixLength() {
+        return ident.length() + " := ".length() + rhs.infixLength() + 1;
     }
 
     /**
      * This method returns a STORE instruction for the variable in question preceded by the code emitted
      * by the RHS node that eventually pushes the value of the expression onto the stack.
      *
-     * @return - a list of instructions ending in one that stores the top value on the stack to this node's variable
+     * @param code - where to add instructions ending in one that stores the top value on the stack to this node's variable
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> data = new ArrayList<>();
-        data.addAll(rhs.emit());
-        data.add(new Machine.Store(ident));
-        return data;
+    public void emit(List<Machine.Instruction> code) {
+        TreeWalker.emit(rhs, code);
+        code.add(new Machine.Store(ident));
     }
 
     /**
@@ -1,7 +1,6 @@
 package perp.tree.stu;
 
-import org.omg.CORBA.Object;
-import perp.Errors;
+import perp.PerpArithmeticException;
 import perp.SymbolTable;
 import perp.machine.stu.Machine;
 import perp.tree.ExpressionNode;
@@ -33,9 +32,81 @@ public class BinaryOperation implements ExpressionNode {
     public static final Collection<String> OPERATORS = new ArrayList<>(Arrays.asList(ADD, SUB,MUL,DIV));
     //Container of all legal binary operators, for use by parsers
 
-    private String operator;
-    private ExpressionNode leftChild;
-    private ExpressionNode rightChild;
+    /**
+     * The binary operators, resolved from their symbols once, when a node is built,
+     * so that evaluation never has to compare strings.
+     */
+    public enum Operator {
+        PLUS(ADD), MINUS(SUB), TIMES(MUL), DIVIDE(DIV);
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @return the string rep. of the operation
+         */
+        public String symbol() {
+            return symbol;
+        }
+
+        /**
+         * Find the operator for a symbol.
+         *
+         * @param symbol - the string rep. of the operation
+         * @return the operator
+         * @throws IllegalArgumentException if symbol is not in OPERATORS
+         */
+        public static Operator of(String symbol) {
+            switch (symbol) {
+                case ADD: return PLUS;
+                case SUB: return MINUS;
+                case MUL: return TIMES;
+                case DIV: return DIVIDE;
+            }
+            throw new IllegalArgumentException("Not a binary operator: " + symbol);
+        }
+
+        /**
+         * Apply this operator. A zero denominator is reported with a PerpArithmeticException.
+         *
+         * @param left - the left operand's value
+         * @param right - the right operand's value
+         * @return the result of the computation
+         */
+        public final int apply(int left, int right) {
+            switch (this) {
+                case PLUS: return left + right;
+                case MINUS: return left - right;
+                case TIMES: return left * right;
+                default:
+                    if (right == 0) {
+                        throw new PerpArithmeticException("Cannot perform division because the denominator is 0", left + "/" + right);
+                    }
+                    return left / right;
+            }
+        }
+
+        /**
+         * @return a new Machine instruction that performs this operation
+         */
+        public Machine.Instruction instruction() {
+            switch (this) {
+                case PLUS: return new Machine.Add();
+                case MINUS: return new Machine.Subtract();
+                case TIMES: return new Machine.Multiply();
+                default: return new Machine.Divide();
+            }
+        }
+    }
+
+    private final Operator operator;
+    private final ExpressionNode leftChild;
+    private final ExpressionNode rightChild;
+    /** how many operators deep this expression is, this one included */
+    private final int depth;
 
     /**
      * Create a new BinaryOperation node.
@@ -46,23 +117,77 @@ public class BinaryOperation implements ExpressionNode {
      * @pre-condition OPERATORS.contains( operator ), leftChild != null, rightChild != null
      */
     public BinaryOperation(String operator, ExpressionNode leftChild, ExpressionNode rightChild){
+        this(Operator.of(operator), leftChild, rightChild);
+    }
+
+    /**
+     * Create a new BinaryOperation node for an operator that is already resolved.
+     *
+     * @param operator - the operation
+     * @param leftChild - the left operand
+     * @param rightChild - the right operand
+     */
+    public BinaryOperation(Operator operator, ExpressionNode leftChild, ExpressionNode rightChild){
         this.operator = operator;
         this.leftChild = leftChild;
         this.rightChild = rightChild;
+        this.depth = 1 + Math.max(TreeWalker.depth(leftChild), TreeWalker.depth(rightChild));
+    }
+
+
+    /**
+     * @return the string rep. of the operation
+     */
+    public String getOperator() {
+        return operator.symbol();
+    }
+
+    /**
+     * @return the operation
+     */
+    public Operator getOp() {
+        return operator;
+    }
+
+    /**
+     * @return the left operand
+     */
+    public ExpressionNode getLeftChild() {
+        return leftChild;
+    }
+
+    /**
+     * @return the right operand
+     */
+    public ExpressionNode getRightChild() {
+        return rightChild;
     }
 
+    /**
+     * @return how many operators deep this expression is, this one included
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * Write the infixDisplay of the two child nodes separated by the operator
+     * and surrounded by parentheses. Blanks are inserted throughout. Operands are walked with a
+     * stack of their own (see {@link TreeWalker}), so nesting is not limited by the call stack.
+     *
+     * @param out where the text goes
+     */
+    @Override
+    public void infixDisplay(Appendable out) {
+        TreeWalker.infixDisplay(this, out);
+    }
 
     /**
-     * Print, on standard output, the infixDisplay of the two child nodes separated by the operator
-     * and surrounded by parentheses. Blanks are inserted throughout.
+     * @return the length of this operation's infix text, operands included
      */
     @Override
-    public void infixDisplay() {
-        System.out.print("( ");
-        leftChild.infixDisplay();
-        System.out.print(" " + operator + " ");
-        rightChild.infixDisplay();
-        System.out.print(" )");
+    public int infixLength() {
+        return TreeWalker.infixLength(this);
     }
 
     /**
@@ -70,57 +195,27 @@ public class BinaryOperation implements ExpressionNode {
      * The operator itself is realized by an instruction that pops two values off the stack,
      * applies the operator, and pushes the answer.
      *
-     * @return a list containing instructions for the left operand, instructions for the right operand,
-     *         and the instruction to perform the operation
+     * @param code where to add instructions for the left operand, instructions for the right operand,
+     *             and the instruction to perform the operation
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> data = new ArrayList<>();
-        data.addAll(leftChild.emit());
-        data.addAll(rightChild.emit());
-        switch(operator){
-            case ADD:
-                data.add(new Machine.Add());
-                break;
-            case DIV:
-                data.add(new Machine.Divide());
-                break;
-            case MUL:
-                data.add(new Machine.Multiply());
-                break;
-            case SUB:
-                data.add(new Machine.Subtract());
-                break;
-        }
-        return data;
+    public void emit(List<Machine.Instruction> code) {
+        TreeWalker.emit(this, code);
     }
 
     /**
      * Compute the result of evaluating both operands and applying the operator to them.
+     * An expression that is nested too deeply to be evaluated recursively is handed to
+     * {@link TreeWalker}, which keeps its place on a stack in the heap.
      *
      * @param symTab symbol table, if needed, to fetch variable values
      * @return the result of the computation
      */
     @Override
     public int evaluate(SymbolTable symTab) {
-        if (operator.equals(ADD)) {
-            return leftChild.evaluate(symTab) + rightChild.evaluate(symTab);
-        } else if (operator.equals(SUB)) {
-            return leftChild.evaluate(symTab) - rightChild.evaluate(symTab);
-        } else if ((operator.equals(MUL))) {
-            return leftChild.evaluate(symTab) * rightChild.evaluate(symTab);
-        } else if (operator.equals(DIV)) {
-            int nominator = leftChild.evaluate(symTab);
-            int denominator = rightChild.evaluate(symTab);
-            if (denominator == 0){
-                Errors.error("Cannot perform division because the denominator is 0", nominator + "/" + denominator);
-            }
-            else {
-                return nominator/denominator;
-            }
-
+        if (depth > TreeWalker.RECURSION_DEPTH) {
+            return TreeWalker.evaluate(this, symTab);
         }
-        return 0;
+        return operator.apply(leftChild.evaluate(symTab), rightChild.evaluate(symTab));
     }
 }
-
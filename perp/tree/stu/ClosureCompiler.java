@@ -0,0 +1,240 @@
+package perp.tree.stu;
+
+import perp.OutputSink;
+import perp.SymbolTable;
+import perp.UnknownVariableException;
+import perp.machine.stu.SlotTable;
+import perp.tree.ActionNode;
+import perp.tree.ExpressionNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Translation of a Perp parse tree into a tree of closures. Each
+ * expression node becomes a lambda that computes its value from an int
+ * array, the frame, in which every variable has a fixed slot; each
+ * statement becomes a lambda that runs it. The node types, operators
+ * and variable slots are all settled when the closures are built, so
+ * running them does none of that work.
+ *
+ * As with {@link JitCompiler}, whether a variable has been assigned at
+ * any point in the program is known when it is translated, and a use of
+ * one that has not been becomes a closure that reports it.
+ *
+ * A closure calls the closures of its operands, so running an
+ * expression takes a few frames of the thread's stack per level of
+ * nesting. Expressions nested more than {@link #MAX_DEPTH} levels deep
+ * are therefore refused, rather than overflowing the stack; the tree
+ * interpreter and the Machine run them.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public final class ClosureCompiler {
+
+    /**
+     * A compiled expression.
+     */
+    @FunctionalInterface
+    interface IntCode {
+        /**
+         * @param frame the variables' values, indexed by slot
+         * @return the expression's value
+         */
+        int eval( int[] frame );
+    }
+
+    /**
+     * A compiled statement.
+     */
+    @FunctionalInterface
+    interface StatementCode {
+        /**
+         * @param frame the variables' values, indexed by slot
+         * @param sink where printed values go
+         */
+        void run( int[] frame, OutputSink sink );
+    }
+
+    /** how many levels deep an expression may be nested */
+    public static final int MAX_DEPTH = 1_000;
+
+    private final SlotTable slots = new SlotTable();
+    private boolean[] defined = new boolean[ 16 ];
+    private final List< Integer > order = new ArrayList<>();
+
+    /** Only {@link #compile(ActionNode)} makes these. */
+    private ClosureCompiler() {}
+
+    /**
+     * A compiled program, ready to run any number of times,
+     * from any number of threads.
+     */
+    public static final class Compiled {
+        private final StatementCode[] statements;
+        private final String[] names;
+        private final int[] definitionOrder;
+
+        private Compiled( StatementCode[] statements, String[] names,
+                          int[] definitionOrder ) {
+            this.statements = statements;
+            this.names = names;
+            this.definitionOrder = definitionOrder;
+        }
+
+        /**
+         * Run the program once, printing on standard output.
+         * @return the program's variables, in the order they were first assigned
+         */
+        public SymbolTable run() {
+            return run( OutputSink.standard() );
+        }
+
+        /**
+         * Run the program once. The sink is flushed at the end.
+         * @param sink where printed values go
+         * @return the program's variables, in the order they were first
+         *         assigned, with the same output
+         * @throws perp.PerpException if the program uses a variable that
+         *         has not been assigned or does impossible arithmetic
+         */
+        public SymbolTable run( OutputSink sink ) {
+            int[] frame = new int[ names.length ];
+            try {
+                for ( StatementCode statement: statements ) {
+                    statement.run( frame, sink );
+                }
+            }
+            finally {
+                sink.flush();
+            }
+            SymbolTable table = new SymbolTable( sink );
+            for ( int slot: definitionOrder ) {
+                table.put( names[ slot ], frame[ slot ] );
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Compile a program.
+     * @param program the root of the program's parse tree
+     * @return the compiled program
+     * @throws IllegalArgumentException if the program has an incomplete
+     *         expression
+     * @throws perp.PerpLimitException if an expression is nested more
+     *         than {@link #MAX_DEPTH} levels deep
+     */
+    public static Compiled compile( ActionNode program ) {
+        ClosureCompiler compiler = new ClosureCompiler();
+        List< StatementCode > statements = new ArrayList<>();
+        compiler.statement( program, statements );
+        String[] names = new String[ compiler.slots.size() ];
+        for ( int slot = 0; slot < names.length; ++slot ) {
+            names[ slot ] = compiler.slots.nameOf( slot );
+        }
+        int[] definitionOrder = new int[ compiler.order.size() ];
+        for ( int i = 0; i < definitionOrder.length; ++i ) {
+            definitionOrder[ i ] = compiler.order.get( i );
+        }
+        return new Compiled( statements.toArray( new StatementCode[ 0 ] ),
+                             names, definitionOrder );
+    }
+
+    /**
+     * Compile a statement. A sequence is flattened into its statements.
+     * @param action the statement
+     * @param out where the compiled statements are added
+     */
+    private void statement( ActionNode action, List< StatementCode > out ) {
+        if ( action instanceof ActionSequence ) {
+            for ( ActionNode child: ( (ActionSequence)action ).actions ) {
+                statement( child, out );
+            }
+        }
+        else if ( action instanceof Assignment ) {
+            Assignment assignment = (Assignment)action;
+            TreeWalker.checkDepth( assignment.getRhs(), MAX_DEPTH,
+                                   "closure compiler" );
+            IntCode rhs = expression( assignment.getRhs() );
+            int slot = slots.slotOf( assignment.getIdent() );
+            if ( !isDefined( slot ) ) {
+                define( slot );
+            }
+            out.add( ( frame, sink ) -> frame[ slot ] = rhs.eval( frame ) );
+        }
+        else if ( action instanceof Print ) {
+            ExpressionNode expr = ( (Print)action ).getPrintee();
+            TreeWalker.checkDepth( expr, MAX_DEPTH, "closure compiler" );
+            IntCode printee = expression( expr );
+            out.add( ( frame, sink ) -> sink.println( "=== ",
+                                                      printee.eval( frame ) ) );
+        }
+        else {
+            throw new IllegalArgumentException(
+                    "Cannot compile statement " + action );
+        }
+    }
+
+    /**
+     * Compile an expression.
+     * @param expr the expression
+     * @return a closure that computes its value
+     */
+    private IntCode expression( ExpressionNode expr ) {
+        if ( expr instanceof Constant ) {
+            int value = ( (Constant)expr ).getValue();
+            return frame -> value;
+        }
+        else if ( expr instanceof Variable ) {
+            String name = ( (Variable)expr ).getName();
+            int slot = slots.slotOf( name );
+            if ( isDefined( slot ) ) {
+                return frame -> frame[ slot ];
+            }
+            return frame -> {
+                throw new UnknownVariableException( name );
+            };
+        }
+        else if ( expr instanceof BinaryOperation ) {
+            BinaryOperation op = (BinaryOperation)expr;
+            IntCode left = expression( op.getLeftChild() );
+            IntCode right = expression( op.getRightChild() );
+            switch ( op.getOp() ) {
+                case PLUS:
+                    return frame -> left.eval( frame ) + right.eval( frame );
+                case MINUS:
+                    return frame -> left.eval( frame ) - right.eval( frame );
+                case TIMES:
+                    return frame -> left.eval( frame ) * right.eval( frame );
+                default:
+                    return frame -> BinaryOperation.Operator.DIVIDE.apply(
+                            left.eval( frame ), right.eval( frame ) );
+            }
+        }
+        else if ( expr instanceof UnaryOperation ) {
+            UnaryOperation op = (UnaryOperation)expr;
+            IntCode operand = expression( op.getExpr() );
+            if ( op.getOp() == UnaryOperation.Operator.NEGATE ) {
+                return frame -> -operand.eval( frame );
+            }
+            return frame -> UnaryOperation.Operator.ROOT.apply(
+                    operand.eval( frame ) );
+        }
+        throw new IllegalArgumentException( "Incomplete expression" );
+    }
+
+    private boolean isDefined( int slot ) {
+        return slot < defined.length && defined[ slot ];
+    }
+
+    private void define( int slot ) {
+        if ( slot >= defined.length ) {
+            defined = Arrays.copyOf( defined,
+                                     Math.max( slot + 1, defined.length * 2 ) );
+        }
+        defined[ slot ] = true;
+        order.add( slot );
+    }
+}
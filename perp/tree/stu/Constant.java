@@ -1,10 +1,10 @@
 package perp.tree.stu;
 
+import perp.OutputSink;
 import perp.SymbolTable;
 import perp.machine.stu.Machine;
 import perp.tree.ExpressionNode;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -24,24 +24,35 @@ public class Constant implements ExpressionNode {
     public Constant(int value) {this.value = value;}
 
     /**
-     * Print this Constant's value on standard output.
+     * @return the integer this Constant holds
+     */
+    public int getValue() {return value;}
+
+    /**
+     * Write this Constant's value.
+     * @param out where the text goes
+     */
+    @Override
+    public void infixDisplay(Appendable out) {
+        TreeWalker.append(out, value);
+    }
+
+    /**
+     * @return how many characters this Constant's value takes
      */
     @Override
-    public void infixDisplay() {
-        System.out.print(value);
+    public int infixLength() {
+        return OutputSink.digitCount(value);
     }
 
     /**
      * Emit an instruction to push the value onto the stack.
      *
-     * @return a list containing that one instruction
+     * @param code where to add that one instruction
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> data = new ArrayList<>();
-        Machine.Instruction temp = new Machine.PushConst(value);
-        data.add(temp);
-        return data;
+    public void emit(List<Machine.Instruction> code) {
+        code.add(new Machine.PushConst(value));
     }
 
     /**
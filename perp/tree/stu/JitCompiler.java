@@ -0,0 +1,871 @@
+package perp.tree.stu;
+
+import perp.OutputSink;
+import perp.SymbolTable;
+import perp.UnknownVariableException;
+import perp.machine.stu.SlotTable;
+import perp.tree.ActionNode;
+import perp.tree.ExpressionNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translation of a Perp parse tree into a JVM class, which is defined
+ * at run time by a class loader of its own so that HotSpot can compile
+ * the Perp arithmetic like any other Java code. Each program gets a new
+ * loader, so its class can be unloaded once the program is no longer
+ * used.
+ *
+ * Every variable lives in a local int variable of the generated code.
+ * Perp programs are straight-line code, so whether a variable has been
+ * assigned yet at any point is known when the program is translated;
+ * a use of a variable that has not been is translated into a call that
+ * reports it. Division, square root and printing are calls to static
+ * methods of this class, so they behave exactly like the tree nodes.
+ * The generated class is in a package of its own loader, so those
+ * methods, and the interface it implements, have to be public.
+ *
+ * HotSpot leaves methods of more than 8000 bytes of code interpreted,
+ * so the statements are split into chunks, each a static method. At the
+ * end of a chunk its variables are stored into an int array, the frame,
+ * and the next chunk loads the ones it needs from there. Each chunk is
+ * also passed the {@link OutputSink} that printed values go to. A chunk
+ * is closed when the next statement would take its code, counting the
+ * loads and stores of the frame, past 8000 bytes; only a chunk of one
+ * statement can be larger. The method that calls the chunks is split
+ * the same way, into groups of calls.
+ *
+ * An expression is translated by walking it recursively, and its
+ * operands wait on the JVM operand stack, so expressions nested more
+ * than {@link #MAX_DEPTH} levels deep are refused; the tree interpreter
+ * and the Machine run them.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public final class JitCompiler {
+
+    /**
+     * What the generated class implements. Only generated code should
+     * implement it.
+     */
+    public interface CompiledProgram {
+        /**
+         * Run the program.
+         * @param frame where the variables' values are left, indexed by slot
+         * @param sink where printed values go
+         */
+        void run( int[] frame, OutputSink sink );
+    }
+
+    /**
+     * the most bytes of code in a method that HotSpot will compile;
+     * see its HugeMethodLimit
+     */
+    public static final int HUGE_METHOD_BYTES = 8_000;
+
+    /** how many levels deep an expression may be nested */
+    public static final int MAX_DEPTH = 1_000;
+
+    /** the bytes of code that call a chunk: two aloads and an invokestatic */
+    private static final int CALL_BYTES = 5;
+
+    /** the JVM's limit on the code in one method */
+    private static final int MAX_CODE_BYTES = 65_535;
+
+    private static final String CLASS_NAME = "perp/tree/stu/JitProgram";
+    private static final String SUPPORT = "perp/tree/stu/JitCompiler";
+    private static final String CHUNK_DESC = "([ILperp/OutputSink;)V";
+
+    /** Do not instantiate this class. */
+    private JitCompiler() {}
+
+    /**
+     * A translated program, ready to run any number of times,
+     * from any number of threads.
+     */
+    public static final class Compiled {
+        private final CompiledProgram code;
+        private final String[] names;
+        private final int[] definitionOrder;
+        private final int methods;
+        private final int largestMethod;
+
+        private Compiled( CompiledProgram code, String[] names,
+                          int[] definitionOrder, int methods,
+                          int largestMethod ) {
+            this.code = code;
+            this.names = names;
+            this.definitionOrder = definitionOrder;
+            this.methods = methods;
+            this.largestMethod = largestMethod;
+        }
+
+        /**
+         * @return how many methods the generated class has
+         */
+        public int methods() {
+            return methods;
+        }
+
+        /**
+         * @return the bytes of code in the generated class's largest
+         *         method; more than {@value JitCompiler#HUGE_METHOD_BYTES}
+         *         only if a single statement needs that much
+         */
+        public int largestMethod() {
+            return largestMethod;
+        }
+
+        /**
+         * Run the program once, printing on standard output.
+         * @return the program's variables, in the order they were first assigned
+         */
+        public SymbolTable run() {
+            return run( OutputSink.standard() );
+        }
+
+        /**
+         * Run the program once. The sink is flushed at the end.
+         * @param sink where printed values go
+         * @return the program's variables, in the order they were first
+         *         assigned, with the same output
+         * @throws perp.PerpException if the program uses a variable that
+         *         has not been assigned or does impossible arithmetic
+         */
+        public SymbolTable run( OutputSink sink ) {
+            int[] frame = new int[ names.length ];
+            try {
+                code.run( frame, sink );
+            }
+            finally {
+                sink.flush();
+            }
+            SymbolTable table = new SymbolTable( sink );
+            for ( int slot: definitionOrder ) {
+                table.put( names[ slot ], frame[ slot ] );
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Translate a program and load the result.
+     * @param program the root of the program's parse tree
+     * @return the loaded program
+     * @throws IllegalArgumentException if the program has an incomplete
+     *         expression or is too large for a single class
+     * @throws perp.PerpLimitException if an expression is nested more
+     *         than {@link #MAX_DEPTH} levels deep
+     */
+    public static Compiled compile( ActionNode program ) {
+        List< ActionNode > statements = new ArrayList<>();
+        flatten( program, statements );
+        Translator translator = new Translator();
+        byte[] classFile = translator.translate( statements );
+        try {
+            Class< ? > generated = new Loader().define( classFile );
+            CompiledProgram code =
+                    (CompiledProgram)generated.getConstructor().newInstance();
+            return new Compiled( code, translator.names(),
+                                 translator.definitionOrder(),
+                                 translator.methods.size(),
+                                 translator.largestMethod );
+        }
+        catch ( ReflectiveOperationException e ) {
+            throw new IllegalStateException( "Could not load JIT code", e );
+        }
+    }
+
+    /**
+     * The loader of one generated class. Its parent is the loader of
+     * this class, so the generated code can see the Perp classes.
+     */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super( JitCompiler.class.getClassLoader() );
+        }
+
+        /**
+         * @param classFile the generated class file
+         * @return the class, defined
+         */
+        Class< ? > define( byte[] classFile ) {
+            return defineClass( CLASS_NAME.replace( '/', '.' ), classFile,
+                                0, classFile.length );
+        }
+    }
+
+    /**
+     * List the statements of a program in execution order.
+     * @param action a statement or sequence of statements
+     * @param out where the statements are added
+     */
+    private static void flatten( ActionNode action, List< ActionNode > out ) {
+        if ( action instanceof ActionSequence ) {
+            for ( ActionNode child: ( (ActionSequence)action ).actions ) {
+                flatten( child, out );
+            }
+        }
+        else {
+            out.add( action );
+        }
+    }
+
+    //
+    // Run-time support called from the generated code.
+    //
+
+    /**
+     * Report the use of a variable that has not been assigned.
+     * @param name the variable's name
+     * @return nothing; the generated code calls this in place of
+     *         reading the variable's value
+     * @throws UnknownVariableException always
+     */
+    public static int undefined( String name ) {
+        throw new UnknownVariableException( name );
+    }
+
+    /**
+     * Divide, as a BinaryOperation node does.
+     * @param left the numerator
+     * @param right the denominator
+     * @return the quotient
+     */
+    public static int div( int left, int right ) {
+        return BinaryOperation.Operator.DIVIDE.apply( left, right );
+    }
+
+    /**
+     * Take a square root, as a UnaryOperation node does.
+     * @param operand the operand
+     * @return the integer square root
+     */
+    public static int sqrt( int operand ) {
+        return UnaryOperation.Operator.ROOT.apply( operand );
+    }
+
+    /**
+     * Print a value, as a Print node does.
+     * @param value the value to be printed
+     * @param sink where it goes
+     */
+    public static void print( int value, OutputSink sink ) {
+        sink.println( "=== ", value );
+    }
+
+    //
+    // Translation into a class file.
+    //
+
+    /**
+     * The state of one translation: the slot of each variable, which
+     * ones have been assigned, and the class file being built.
+     */
+    private static final class Translator {
+        private final SlotTable slots = new SlotTable();
+        private boolean[] defined = new boolean[ 16 ];
+        private final List< Integer > order = new ArrayList<>();
+        private final ConstantPool pool = new ConstantPool();
+        private final List< byte[] > methods = new ArrayList<>();
+        private int largestMethod = 0;
+
+        /** the chunk being translated: frame slot to local variable */
+        private Map< Integer, Integer > locals;
+        /** the chunk's slots, in the order they were given locals */
+        private List< Integer > localSlots;
+        /** the slots the chunk reads before it assigns them */
+        private List< Integer > liveIn;
+        /** the slots the chunk assigns, each once */
+        private List< Integer > assigned;
+        private Set< Integer > assignedSet;
+        /** the bytes of code that load liveIn and store assigned */
+        private int transferBytes;
+        private int statementCount;
+        private Code body;
+
+        /**
+         * @return the variable names, indexed by slot
+         */
+        String[] names() {
+            String[] result = new String[ slots.size() ];
+            for ( int slot = 0; slot < result.length; ++slot ) {
+                result[ slot ] = slots.nameOf( slot );
+            }
+            return result;
+        }
+
+        /**
+         * @return the slots in the order in which they are first assigned
+         */
+        int[] definitionOrder() {
+            int[] result = new int[ order.size() ];
+            for ( int i = 0; i < result.length; ++i ) {
+                result[ i ] = order.get( i );
+            }
+            return result;
+        }
+
+        /**
+         * Build the class file for a program.
+         * @param statements the program's statements, in order
+         * @return the class file
+         */
+        byte[] translate( List< ActionNode > statements ) {
+            List< String > chunks = new ArrayList<>();
+            startChunk();
+            for ( ActionNode statement: statements ) {
+                Mark mark = new Mark();
+                statement( statement );
+                if ( chunkBytes() > HUGE_METHOD_BYTES && statementCount > 0 ) {
+                    mark.rollBack();
+                    chunks.add( endChunk( "c" + chunks.size() ) );
+                    startChunk();
+                    statement( statement );
+                }
+                ++statementCount;
+            }
+            if ( statementCount > 0 ) {
+                chunks.add( endChunk( "c" + chunks.size() ) );
+            }
+
+            // Each call takes CALL_BYTES, and the method ends in a return.
+            int perMethod = ( HUGE_METHOD_BYTES - 1 ) / CALL_BYTES;
+            for ( int group = 0; chunks.size() > perMethod; ++group ) {
+                List< String > groups = new ArrayList<>();
+                for ( int i = 0; i < chunks.size(); i += perMethod ) {
+                    String name = "g" + group + "_" + groups.size();
+                    calls( name, 0x000a, chunks.subList(
+                            i, Math.min( chunks.size(), i + perMethod ) ) );
+                    groups.add( name );
+                }
+                chunks = groups;
+            }
+            calls( "run", 0x0001, chunks );
+
+            Code init = new Code();
+            init.op( 0x2a ); // aload_0
+            init.op( 0xb7 ).u2( pool.methodRef( "java/lang/Object", "<init>",
+                                                "()V" ) );
+            init.op( 0xb1 ); // return
+            init.maxDepth = 1;
+            method( 0x0001, "<init>", "()V", init, 1 );
+
+            return classFile();
+        }
+
+        /**
+         * Add a method that calls other methods of the class in turn,
+         * passing on the frame and the sink.
+         * @param name the method's name
+         * @param access the method's access flags: static, or not
+         * @param callees the names of the static methods it calls
+         */
+        private void calls( String name, int access, List< String > callees ) {
+            // The frame and sink are locals 1 and 2 of the instance
+            // method run, and 0 and 1 of the static ones.
+            int first = ( access & 0x0008 ) != 0 ? 0 : 1;
+            Code code = new Code();
+            for ( String callee: callees ) {
+                code.op( 0x2a + first );     // aload_0 or aload_1
+                code.op( 0x2a + first + 1 ); // aload_1 or aload_2
+                code.op( 0xb8 ).u2( pool.methodRef( CLASS_NAME, callee,
+                                                    CHUNK_DESC ) );
+            }
+            code.op( 0xb1 ); // return
+            code.maxDepth = 2;
+            method( access, name, CHUNK_DESC, code, first + 2 );
+        }
+
+        /**
+         * Begin a new chunk, with no statements.
+         */
+        private void startChunk() {
+            locals = new HashMap<>();
+            localSlots = new ArrayList<>();
+            liveIn = new ArrayList<>();
+            assigned = new ArrayList<>();
+            assignedSet = new HashSet<>();
+            transferBytes = 0;
+            statementCount = 0;
+            body = new Code();
+        }
+
+        /**
+         * Translate a statement into the chunk.
+         * @param statement the statement
+         */
+        private void statement( ActionNode statement ) {
+            if ( statement instanceof Assignment ) {
+                Assignment assignment = (Assignment)statement;
+                TreeWalker.checkDepth( assignment.getRhs(), MAX_DEPTH,
+                                       "JIT compiler" );
+                expression( assignment.getRhs() );
+                int slot = slots.slotOf( assignment.getIdent() );
+                body.local( 0x36, local( slot ) ); // istore
+                if ( !isDefined( slot ) ) {
+                    define( slot );
+                }
+                if ( assignedSet.add( slot ) ) {
+                    assigned.add( slot );
+                    transferBytes += transferBytes( slot );
+                }
+            }
+            else if ( statement instanceof Print ) {
+                ExpressionNode printee = ( (Print)statement ).getPrintee();
+                TreeWalker.checkDepth( printee, MAX_DEPTH, "JIT compiler" );
+                expression( printee );
+                body.op( 0x2b ).push( 1 ); // aload_1
+                body.op( 0xb8 ).u2( pool.methodRef(
+                        SUPPORT, "print", "(ILperp/OutputSink;)V" ) );
+                body.pop( 2 );
+            }
+            else {
+                throw new IllegalArgumentException(
+                        "Cannot translate statement " + statement );
+            }
+        }
+
+        /**
+         * @return the bytes of code the chunk's method would have if it
+         *         were ended now
+         */
+        private int chunkBytes() {
+            return transferBytes + body.size() + 1; // return
+        }
+
+        /**
+         * @param slot a variable's slot
+         * @return the bytes of code that move the variable between the
+         *         frame and its local: aload_0, the slot, iaload or
+         *         iastore, and iload or istore
+         */
+        private int transferBytes( int slot ) {
+            return 2 + Code.pushIntBytes( slot ) +
+                   Code.localBytes( locals.get( slot ) );
+        }
+
+        /**
+         * Finish the chunk as a static method: load the variables it
+         * reads from the frame, run its statements, and store the
+         * variables it assigns back into the frame.
+         * @param name the method's name
+         * @return the name
+         */
+        private String endChunk( String name ) {
+            Code code = new Code();
+            for ( int slot: liveIn ) {
+                code.op( 0x2a ).push( 1 ); // aload_0
+                code.pushInt( slot, pool );
+                code.op( 0x2e ).pop( 1 ); // iaload
+                code.local( 0x36, locals.get( slot ) ); // istore
+            }
+            code.append( body );
+            for ( int slot: assigned ) {
+                code.op( 0x2a ).push( 1 ); // aload_0
+                code.pushInt( slot, pool );
+                code.local( 0x15, locals.get( slot ) ); // iload
+                code.op( 0x4f ).pop( 3 ); // iastore
+            }
+            code.op( 0xb1 ); // return
+            method( 0x000a, name, CHUNK_DESC, code, locals.size() + 2 );
+            return name;
+        }
+
+        /**
+         * Where the translation stood before a statement, so that the
+         * statement can be taken back out of the chunk. Constants it
+         * added to the pool stay there.
+         */
+        private final class Mark {
+            private final int bodySize = body.size();
+            private final int maxDepth = body.maxDepth;
+            private final int localCount = localSlots.size();
+            private final int liveInCount = liveIn.size();
+            private final int assignedCount = assigned.size();
+            private final int defineCount = order.size();
+            private final int transfer = transferBytes;
+
+            /**
+             * Undo everything done to the chunk since the mark was made.
+             */
+            void rollBack() {
+                body.truncate( bodySize );
+                body.maxDepth = maxDepth;
+                while ( localSlots.size() > localCount ) {
+                    locals.remove( localSlots.remove( localSlots.size() - 1 ) );
+                }
+                while ( liveIn.size() > liveInCount ) {
+                    liveIn.remove( liveIn.size() - 1 );
+                }
+                while ( assigned.size() > assignedCount ) {
+                    assignedSet.remove( assigned.remove( assigned.size() - 1 ) );
+                }
+                while ( order.size() > defineCount ) {
+                    defined[ order.remove( order.size() - 1 ) ] = false;
+                }
+                transferBytes = transfer;
+            }
+        }
+
+        /**
+         * Translate an expression, leaving its value on the JVM stack.
+         * @param expr the expression
+         */
+        private void expression( ExpressionNode expr ) {
+            if ( expr instanceof Constant ) {
+                body.pushInt( ( (Constant)expr ).getValue(), pool );
+            }
+            else if ( expr instanceof Variable ) {
+                String name = ( (Variable)expr ).getName();
+                int slot = slots.slotOf( name );
+                if ( isDefined( slot ) ) {
+                    if ( !locals.containsKey( slot ) ) {
+                        liveIn.add( slot );
+                        local( slot );
+                        transferBytes += transferBytes( slot );
+                    }
+                    body.local( 0x15, local( slot ) ); // iload
+                }
+                else {
+                    body.op( 0x13 ).u2( pool.string( name ) ); // ldc_w
+                    body.op( 0xb8 ).u2( pool.methodRef(
+                            SUPPORT, "undefined", "(Ljava/lang/String;)I" ) );
+                    body.push( 1 );
+                }
+            }
+            else if ( expr instanceof BinaryOperation ) {
+                BinaryOperation op = (BinaryOperation)expr;
+                expression( op.getLeftChild() );
+                expression( op.getRightChild() );
+                switch ( op.getOp() ) {
+                    case PLUS: body.op( 0x60 ); break;  // iadd
+                    case MINUS: body.op( 0x64 ); break; // isub
+                    case TIMES: body.op( 0x68 ); break; // imul
+                    default:
+                        body.op( 0xb8 ).u2( pool.methodRef( SUPPORT, "div",
+                                                            "(II)I" ) );
+                }
+                body.pop( 1 );
+            }
+            else if ( expr instanceof UnaryOperation ) {
+                UnaryOperation op = (UnaryOperation)expr;
+                expression( op.getExpr() );
+                if ( op.getOp() == UnaryOperation.Operator.NEGATE ) {
+                    body.op( 0x74 ); // ineg
+                }
+                else {
+                    body.op( 0xb8 ).u2( pool.methodRef( SUPPORT, "sqrt",
+                                                        "(I)I" ) );
+                }
+            }
+            else {
+                throw new IllegalArgumentException( "Incomplete expression" );
+            }
+        }
+
+        /**
+         * @param slot a variable's slot
+         * @return the variable's local variable number in this chunk
+         */
+        private int local( int slot ) {
+            Integer local = locals.get( slot );
+            if ( local == null ) {
+                local = locals.size() + 2;
+                locals.put( slot, local );
+                localSlots.add( slot );
+            }
+            return local;
+        }
+
+        private boolean isDefined( int slot ) {
+            return slot < defined.length && defined[ slot ];
+        }
+
+        private void define( int slot ) {
+            if ( slot >= defined.length ) {
+                defined = Arrays.copyOf( defined,
+                        Math.max( slot + 1, defined.length * 2 ) );
+            }
+            defined[ slot ] = true;
+            order.add( slot );
+        }
+
+        /**
+         * Add a method to the class.
+         * @param access the method's access flags
+         * @param name the method's name
+         * @param descriptor the method's JVM type descriptor
+         * @param code the method's code
+         * @param maxLocals how many local variable slots the code uses
+         */
+        private void method( int access, String name, String descriptor,
+                             Code code, int maxLocals ) {
+            if ( code.size() > MAX_CODE_BYTES ) {
+                throw new IllegalArgumentException(
+                        "A statement is too large to translate" );
+            }
+            if ( maxLocals > 0xFFFF ) {
+                throw new IllegalArgumentException(
+                        "Too many variables to translate" );
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            try {
+                out.writeShort( access );
+                out.writeShort( pool.utf8( name ) );
+                out.writeShort( pool.utf8( descriptor ) );
+                out.writeShort( 1 ); // attributes: Code
+                out.writeShort( pool.utf8( "Code" ) );
+                out.writeInt( 12 + code.size() );
+                out.writeShort( code.maxDepth );
+                out.writeShort( maxLocals );
+                out.writeInt( code.size() );
+                code.writeTo( out );
+                out.writeShort( 0 ); // exception table
+                out.writeShort( 0 ); // attributes
+            }
+            catch ( IOException impossible ) {
+                throw new IllegalStateException( impossible );
+            }
+            methods.add( bytes.toByteArray() );
+            largestMethod = Math.max( largestMethod, code.size() );
+        }
+
+        /**
+         * @return the finished class file
+         */
+        private byte[] classFile() {
+            int thisClass = pool.classRef( CLASS_NAME );
+            int superClass = pool.classRef( "java/lang/Object" );
+            int iface = pool.classRef( SUPPORT + "$CompiledProgram" );
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            try {
+                out.writeInt( 0xCAFEBABE );
+                out.writeShort( 0 );  // minor version
+                out.writeShort( 52 ); // major version: Java 8, no stack maps
+                pool.writeTo( out );
+                out.writeShort( 0x0031 ); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+                out.writeShort( thisClass );
+                out.writeShort( superClass );
+                out.writeShort( 1 );
+                out.writeShort( iface );
+                out.writeShort( 0 ); // fields
+                out.writeShort( methods.size() );
+                for ( byte[] method: methods ) {
+                    out.write( method );
+                }
+                out.writeShort( 0 ); // attributes
+            }
+            catch ( IOException impossible ) {
+                throw new IllegalStateException( impossible );
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * The bytes of one method's code, and the JVM operand stack depth
+     * they need.
+     */
+    private static final class Code {
+        private byte[] bytes = new byte[ 64 ];
+        private int size = 0;
+        private int depth = 0;
+        private int maxDepth = 0;
+
+        Code op( int opcode ) {
+            if ( size == bytes.length ) {
+                bytes = Arrays.copyOf( bytes, size * 2 );
+            }
+            bytes[ size++ ] = (byte)opcode;
+            return this;
+        }
+
+        Code u2( int value ) {
+            return op( value >> 8 ).op( value );
+        }
+
+        Code push( int count ) {
+            depth += count;
+            maxDepth = Math.max( maxDepth, depth );
+            return this;
+        }
+
+        Code pop( int count ) {
+            depth -= count;
+            return this;
+        }
+
+        /**
+         * Add an instruction that uses a local variable.
+         * @param opcode iload or istore
+         * @param local the local variable's number
+         */
+        void local( int opcode, int local ) {
+            if ( local > 0xFF ) {
+                op( 0xc4 ).op( opcode ).u2( local ); // wide
+            }
+            else {
+                op( opcode ).op( local );
+            }
+            if ( opcode == 0x15 ) {
+                push( 1 );
+            }
+            else {
+                pop( 1 );
+            }
+        }
+
+        /**
+         * @param local a local variable's number
+         * @return the bytes of an iload or istore of it
+         */
+        static int localBytes( int local ) {
+            return local > 0xFF ? 4 : 2;
+        }
+
+        /**
+         * @param value a constant
+         * @return the bytes of the instruction {@link #pushInt} adds for it
+         */
+        static int pushIntBytes( int value ) {
+            if ( value >= -1 && value <= 5 ) {
+                return 1;
+            }
+            return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ? 2 : 3;
+        }
+
+        /**
+         * Add the shortest instruction that pushes a constant.
+         * @param value the constant
+         * @param pool where large constants are kept
+         */
+        void pushInt( int value, ConstantPool pool ) {
+            if ( value >= -1 && value <= 5 ) {
+                op( 0x03 + value ); // iconst_<n>
+            }
+            else if ( value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ) {
+                op( 0x10 ).op( value ); // bipush
+            }
+            else if ( value >= Short.MIN_VALUE && value <= Short.MAX_VALUE ) {
+                op( 0x11 ).u2( value ); // sipush
+            }
+            else {
+                op( 0x13 ).u2( pool.integer( value ) ); // ldc_w
+            }
+            push( 1 );
+        }
+
+        void append( Code other ) {
+            if ( size + other.size > bytes.length ) {
+                bytes = Arrays.copyOf( bytes, Math.max( bytes.length * 2,
+                                                        size + other.size ) );
+            }
+            System.arraycopy( other.bytes, 0, bytes, size, other.size );
+            size += other.size;
+            maxDepth = Math.max( maxDepth, depth + other.maxDepth );
+        }
+
+        /**
+         * Drop the code added after a point.
+         * @param newSize how many bytes to keep
+         */
+        void truncate( int newSize ) {
+            size = newSize;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeTo( DataOutputStream out ) throws IOException {
+            out.write( bytes, 0, size );
+        }
+    }
+
+    /**
+     * A class file constant pool. Equal entries are shared.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream( bytes );
+        private final Map< String, Integer > entries = new HashMap<>();
+        private int count = 1;
+
+        private int add( String key, int tag, int a, int b, String text,
+                         int wide ) {
+            Integer index = entries.get( key );
+            if ( index != null ) {
+                return index;
+            }
+            if ( count == 0xFFFF ) {
+                throw new IllegalArgumentException(
+                        "Program is too large to translate" );
+            }
+            try {
+                out.writeByte( tag );
+                if ( text != null ) {
+                    out.writeUTF( text );
+                }
+                else if ( tag == 3 ) {
+                    out.writeInt( wide );
+                }
+                else {
+                    out.writeShort( a );
+                    if ( b >= 0 ) {
+                        out.writeShort( b );
+                    }
+                }
+            }
+            catch ( IOException impossible ) {
+                throw new IllegalStateException( impossible );
+            }
+            entries.put( key, count );
+            return count++;
+        }
+
+        int utf8( String text ) {
+            return add( "U" + text, 1, 0, -1, text, 0 );
+        }
+
+        int integer( int value ) {
+            return add( "I" + value, 3, 0, -1, null, value );
+        }
+
+        int classRef( String internalName ) {
+            int name = utf8( internalName );
+            return add( "C" + internalName, 7, name, -1, null, 0 );
+        }
+
+        int string( String text ) {
+            int utf = utf8( text );
+            return add( "S" + text, 8, utf, -1, null, 0 );
+        }
+
+        int methodRef( String owner, String name, String descriptor ) {
+            int ownerIndex = classRef( owner );
+            int nameIndex = utf8( name );
+            int descIndex = utf8( descriptor );
+            int nameAndType = add( "N" + name + ' ' + descriptor, 12,
+                                   nameIndex, descIndex, null, 0 );
+            return add( "M" + owner + '.' + name + descriptor, 10,
+                        ownerIndex, nameAndType, null, 0 );
+        }
+
+        void writeTo( DataOutputStream classOut ) throws IOException {
+            classOut.writeShort( count );
+            bytes.writeTo( classOut );
+        }
+    }
+}
@@ -1,17 +1,17 @@
 package perp.tree.stu;
 
-import perp.Errors;
+import perp.OutputSink;
 import perp.SymbolTable;
-import perp.machine.InstructionReader;
+import perp.machine.RegisterProgram;
 import perp.machine.stu.Machine;
+import perp.machine.stu.Program;
+import perp.machine.stu.SlotTable;
 import perp.tree.ActionNode;
-import perp.tree.ExpressionNode;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import static sun.util.locale.LocaleUtils.isAlphaNumericString;
-
 /**
  * Operations that are done on a Perp code parse tree.
  *
@@ -20,84 +20,32 @@ import static sun.util.locale.LocaleUtils.isAlphaNumericString;
  * @author Phuvit Kittisapkajon.
  */
 public class ParseTree {
-    private static ActionSequence actions;
-    private static SymbolTable table = new SymbolTable();
+    private ActionSequence actions;
+
+    /** the same program after constant folding and simplification */
+    private ActionNode simplified;
+
+    /**
+     * how many tokens the program has; every token becomes at most one
+     * instruction, so the compiled code is never longer than this
+     */
+    private final int tokenCount;
+
     /**
      * Parse the entire list of program tokens. The program is a
      * sequence of actions (statements), each of which modifies something
      * in the program's set of variables. The resulting parse tree is
-     * stored internally.
+     * stored internally, along with a simplified copy (see
+     * {@link Simplifier}) that is used to run the program and, on
+     * request, to compile it.
      *
-     * @param program the token list (Strings). This list may be destroyed by this constructor.
+     * @param program the token list (Strings). This list is not changed.
+     * @throws perp.PerpParseException if the program cannot be parsed
      */
     public ParseTree( List< String > program ) {
-        ArrayList<String> action = new ArrayList<>();
-        actions = new ActionSequence();
-        while (!program.isEmpty()) {
-            String current = program.get(0);
-            if (current.equals(":=") || current.equals("@")) {
-                if (action.isEmpty()) {
-                    action.add(current);
-                    program.remove(current);
-                } else {
-                    actions.addAction(parseAction(action));
-                    action = new ArrayList<>();
-                    action.add(current);
-                    program.remove(current);
-                }
-            } else {
-                action.add(current);
-                program.remove(current);
-            }
-        }
-        if (!action.isEmpty()){
-            actions.addAction(parseAction(action));
-        }
-    }
-    /**
-     * Parse the next action (statement) in the list.
-     * (This method is not required, just suggested.)
-     *
-     * @param program the list of tokens
-     * @return a parse tree for the action
-     */
-    private ActionNode parseAction(List< String > program ) {
-        String statement = program.remove(0);
-        if (statement.equals(":=")) {
-            String ident = program.remove(0);
-            return new Assignment(ident,parseExpr(program));
-        } else if (statement.equals("@")){
-            return new Print(parseExpr(program));
-        }
-        Errors.error("Invalid String Input for Determine Whether the program is an Assignment or a Print", statement);
-        return null;
-    }
-
-    /**
-     * Parse the next expression in the list.
-     * (This method is not required, just suggested.)
-     * @param program the list of tokens
-     * @return a parse tree for this expression
-     */
-    private ExpressionNode parseExpr( List< String > program ) {
-        String current;
-        if (program.isEmpty()){
-            return null;
-        }
-        else {
-            current = program.remove(0);
-            if (current.matches("[a-zA-Z].*")) {
-                return new Variable(current);
-            } else if (isAlphaNumericString(current)) {
-                return new Constant(Integer.parseInt(current));
-            } else if (BinaryOperation.OPERATORS.contains(current)) {
-                return new BinaryOperation(current, parseExpr(program), parseExpr(program));
-            } else if (UnaryOperation.OPERATORS.contains(current)) {
-                return new UnaryOperation(current, parseExpr(program));
-            }
-        }
-        Errors.error("Invalid String input for ExpressionNode Type (at parseExpr method)",current);
-        return null;
+        actions = new Parser(program).parseProgram();
+        simplified = Simplifier.simplify(actions);
+        tokenCount = program.size();
     }
 
     /**
@@ -110,23 +58,172 @@ public class ParseTree {
         actions.infixDisplay();
     }
 
+    /**
+     * Write the program the tree represents in infix style, one
+     * statement per line, as {@link #displayProgram()} shows it but
+     * without the heading.
+     * @param out where the text goes; for instance a StringBuilder of
+     *            {@link #programLength()} characters, or a
+     *            {@link perp.BufferedSink} for a file
+     * @see perp.tree.PerpNode#infixDisplay(Appendable)
+     */
+    public void displayProgram(Appendable out) {
+        actions.infixDisplay(out);
+    }
+
+    /**
+     * @return how many characters {@link #displayProgram(Appendable)} writes
+     */
+    public int programLength() {
+        return actions.infixLength();
+    }
+
     /**
      * Run the program represented by the tree directly
+     * @throws perp.PerpException if the program fails while running
      * @see perp.tree.ActionNode#execute(SymbolTable)
      */
     public void interpret() {
         System.out.println("\n" + "Interpreting the parse tree...");
-        actions.execute(table);
+        SymbolTable table = interpret(OutputSink.standard());
         System.out.println("Interpretation Completed.\n");
         table.dump();
     }
 
+    /**
+     * Run the program represented by the tree directly, printing
+     * nothing but what the program itself prints. The sink is flushed
+     * at the end.
+     * @param out where the program's output goes
+     * @return the program's variables, in the order they were first
+     *         assigned, with the same output
+     * @throws perp.PerpException if the program fails while running
+     */
+    public SymbolTable interpret(OutputSink out) {
+        SymbolTable table = new SymbolTable(out);
+        simplified.execute(table);
+        out.flush();
+        return table;
+    }
+
     /**
      * Build the list of machine instructions for
-     * the program represented by the tree.
+     * the program represented by the tree, linked so that
+     * variables are addressed by slot. The instructions are emitted
+     * into one list, sized for the whole program from the start.
+     * The code follows the program as it was written; see
+     * {@link #compile(boolean)} for the simplified version.
+     * @return the Machine.Instruction list
+     * @see perp.machine.stu.Machine.Instruction#execute(Machine)
+     * @see perp.tree.PerpNode#emit(List)
+     */
+    public List< Machine.Instruction > compile() {
+        return compile(false);
+    }
+
+    /**
+     * Build the list of machine instructions for
+     * the program represented by the tree, as {@link #compile()} does.
+     * @param simplify whether to compile the simplified copy of the
+     *                 tree instead, so that folded constants and dropped
+     *                 identities show up in the instruction listing
      * @return the Machine.Instruction list
-     * @see perp.machine.stu.Machine.Instruction#execute()
      */
-    public List< Machine.Instruction > compile() {return actions.emit();}
+    public List< Machine.Instruction > compile(boolean simplify) {
+        List< Machine.Instruction > code = new ArrayList<>(tokenCount);
+        (simplify ? simplified : actions).emit(code);
+        return Program.link(code);
+    }
+
+    /**
+     * Build the three-address register code for
+     * the program represented by the tree.
+     * @return the register program
+     * @see perp.machine.RegisterMachine
+     */
+    public RegisterProgram registerCompile() {return RegisterCompiler.compile(simplified);}
+
+    /**
+     * Compile the program represented by the tree into closures
+     * over a frame of variable slots. The result can be run any
+     * number of times.
+     * @return the compiled program
+     * @see ClosureCompiler
+     */
+    public ClosureCompiler.Compiled closureCompile() {return ClosureCompiler.compile(simplified);}
+
+    /**
+     * Run the program represented by the tree as closures.
+     * Prints and reports exactly as {@link #interpret()} does.
+     */
+    public void closureExecute() {
+        ClosureCompiler.Compiled program = closureCompile();
+        System.out.println("\n" + "Running the closure-compiled program...");
+        SymbolTable table = program.run();
+        System.out.println("Execution Completed.\n");
+        table.dump();
+    }
+
+    /**
+     * Translate the program represented by the tree into a JVM class
+     * and load it. The result can be run any number of times.
+     * @return the loaded program
+     * @see JitCompiler
+     */
+    public JitCompiler.Compiled jitCompile() {return JitCompiler.compile(simplified);}
+
+    /**
+     * Run the program represented by the tree as JVM code.
+     * Prints and reports exactly as {@link #interpret()} does.
+     */
+    public void jitExecute() {
+        JitCompiler.Compiled program = jitCompile();
+        System.out.println("\n" + "Running the JIT-compiled program...");
+        SymbolTable table = program.run();
+        System.out.println("Execution Completed.\n");
+        table.dump();
+    }
+
+    /**
+     * Run a program directly as it is read, one statement at a time,
+     * without building the tree for the whole program. Each statement
+     * is simplified before it is run.
+     * @param source the program text
+     * @throws IOException if the source cannot be read
+     * @see StatementReader
+     */
+    public static void interpret(StatementReader source) throws IOException {
+        SymbolTable table = new SymbolTable();
+        System.out.println("\n" + "Interpreting the source stream...");
+        for (ActionNode action = source.next(); action != null; action = source.next()) {
+            Simplifier.simplify(action).execute(table);
+        }
+        table.output().flush();
+        System.out.println("Interpretation Completed.\n");
+        table.dump();
+    }
+
+    /**
+     * Compile and execute a program as it is read, one statement at a
+     * time, on a single Machine. Each statement is simplified before it
+     * is compiled. All the statements are linked against
+     * one SlotTable so that they agree on where each variable lives.
+     * Reports as {@link Machine#execute(List)} does.
+     * @param source the program text
+     * @throws IOException if the source cannot be read
+     * @see StatementReader
+     */
+    public static void execute(StatementReader source) throws IOException {
+        Machine machine = new Machine();
+        SlotTable slots = new SlotTable();
+        System.out.println("Executing compiled code...");
+        for (ActionNode action = source.next(); action != null; action = source.next()) {
+            machine.run(Program.link(Simplifier.simplify(action).emit(), slots));
+        }
+        System.out.println("Machine: execution ended with " +
+                machine.stackSize() + " items left on the stack.");
+        System.out.println();
+        machine.getSymbolTable().dump();
+    }
 
 }
@@ -0,0 +1,258 @@
+package perp.tree.stu;
+
+import perp.PerpParseException;
+import perp.tree.ActionNode;
+import perp.tree.ExpressionNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prefix-notation parser for Perp that walks the token sequence with
+ * a cursor. The token list it is given is never changed, and each token
+ * is looked at a constant number of times, so parsing takes time linear
+ * in the length of the program.
+ *
+ * Identifiers are interned: every mention of a variable in the program
+ * is the same String, so a {@link perp.SymbolTable} can match names by
+ * reference.
+ *
+ * A statement runs from an assignment (":=") or print ("@") token up to,
+ * but not including, the next one. Tokens left over after a statement's
+ * expression are ignored.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+class Parser {
+
+    /** The token that starts an assignment statement */
+    static final String ASSIGN = ":=";
+
+    /** The token that starts a print statement */
+    static final String PRINT = "@";
+
+    private final String[] tokens;
+
+    /** index of the next token to be parsed */
+    private int pos;
+
+    /** index just past the last token of the current statement */
+    private int end;
+
+    /** each identifier seen so far, as the one String used for it */
+    private final Map< String, String > identifiers;
+
+    /**
+     * Prepare to parse a program.
+     * @param program the token list; it is copied, not changed
+     */
+    Parser( List< String > program ) {
+        this( program, new HashMap<>() );
+    }
+
+    /**
+     * Prepare to parse part of a program whose identifiers are interned
+     * along with those of the other parts.
+     * @param program the token list; it is copied, not changed
+     * @param identifiers the identifiers of the parts parsed so far, each
+     *                    mapped to itself; the new ones are added
+     */
+    Parser( List< String > program, Map< String, String > identifiers ) {
+        this.tokens = program.toArray( new String[ 0 ] );
+        this.pos = 0;
+        this.end = 0;
+        this.identifiers = identifiers;
+    }
+
+    /**
+     * Parse every statement in the program.
+     * @return the statements, in program order
+     * @throws perp.PerpParseException if a token is out of place
+     */
+    ActionSequence parseProgram() {
+        ActionSequence actions = new ActionSequence();
+        while ( pos < tokens.length ) {
+            actions.addAction( parseNext() );
+        }
+        return actions;
+    }
+
+    /**
+     * Parse the statement at the cursor and move past it.
+     * @return a parse tree for the statement, or null if there are
+     *         no tokens left
+     * @throws perp.PerpParseException if a token is out of place
+     */
+    ActionNode parseNext() {
+        if ( pos == tokens.length ) {
+            return null;
+        }
+        end = nextStatement( pos + 1 );
+        ActionNode action = parseAction();
+        pos = end;
+        return action;
+    }
+
+    /**
+     * @param token a program token
+     * @return true iff the token starts a statement
+     */
+    static boolean isStatementStart( String token ) {
+        return token.equals( ASSIGN ) || token.equals( PRINT );
+    }
+
+    /**
+     * Find where the next statement starts.
+     * @param from the index at which to start looking
+     * @return the index of the next statement token at or after from,
+     *         or the number of tokens if there is none
+     */
+    private int nextStatement( int from ) {
+        while ( from < tokens.length && !isStatementStart( tokens[ from ] ) ) {
+            ++from;
+        }
+        return from;
+    }
+
+    /**
+     * Parse the statement that starts at the cursor.
+     * @return a parse tree for the action
+     */
+    private ActionNode parseAction() {
+        String statement = tokens[ pos++ ];
+        if ( statement.equals( ASSIGN ) ) {
+            if ( pos == end ) {
+                throw new PerpParseException( "Missing variable name after", statement );
+            }
+            String ident = intern( tokens[ pos++ ] );
+            return new Assignment( ident, parseExpr() );
+        }
+        else if ( statement.equals( PRINT ) ) {
+            return new Print( parseExpr() );
+        }
+        throw new PerpParseException( "Invalid String Input for Determine Whether the program is an Assignment or a Print", statement );
+    }
+
+    /**
+     * Parse the expression that starts at the cursor. Operators whose
+     * operands are not yet parsed wait on a stack of their own, rather
+     * than in recursive calls, so that an expression may be nested as
+     * deeply as memory allows. Each finished operand goes to the
+     * innermost waiting operator; an operator with all its operands is
+     * itself a finished operand.
+     * @return a parse tree for this expression
+     * @throws perp.PerpParseException if the statement runs out of tokens
+     *         before the expression is complete, or a number does not
+     *         fit in an int
+     */
+    private ExpressionNode parseExpr() {
+        List< Pending > waiting = new ArrayList<>();
+        while ( true ) {
+            ExpressionNode node;
+            if ( pos == end ) {
+                throw new PerpParseException( "Missing operand after",
+                                              tokens[ pos - 1 ] );
+            }
+            String current = tokens[ pos++ ];
+            if ( isIdentifier( current ) ) {
+                node = new Variable( intern( current ) );
+            }
+            else if ( isNumber( current ) ) {
+                node = new Constant( parseNumber( current ) );
+            }
+            else if ( BinaryOperation.OPERATORS.contains( current ) ||
+                      UnaryOperation.OPERATORS.contains( current ) ) {
+                waiting.add( new Pending( current ) );
+                continue;
+            }
+            else {
+                throw new PerpParseException( "Invalid String input for ExpressionNode Type (at parseExpr method)", current );
+            }
+            while ( true ) {
+                if ( waiting.isEmpty() ) {
+                    return node;
+                }
+                Pending top = waiting.get( waiting.size() - 1 );
+                if ( top.binary && !top.hasLeft ) {
+                    top.left = node;
+                    top.hasLeft = true;
+                    break;
+                }
+                waiting.remove( waiting.size() - 1 );
+                node = top.binary ?
+                        new BinaryOperation( top.operator, top.left, node ) :
+                        new UnaryOperation( top.operator, node );
+            }
+        }
+    }
+
+    /**
+     * An operator whose operands are still being parsed.
+     */
+    private static final class Pending {
+        final String operator;
+        final boolean binary;
+        ExpressionNode left = null;
+        boolean hasLeft = false;
+
+        Pending( String operator ) {
+            this.operator = operator;
+            this.binary = BinaryOperation.OPERATORS.contains( operator );
+        }
+    }
+
+    /**
+     * @param ident an identifier
+     * @return the String used for every mention of this identifier
+     */
+    private String intern( String ident ) {
+        String known = identifiers.putIfAbsent( ident, ident );
+        return known == null ? ident : known;
+    }
+
+    /**
+     * @param token a program token that is all ASCII digits
+     * @return the token's value
+     * @throws perp.PerpParseException if the value does not fit in an int
+     */
+    private static int parseNumber( String token ) {
+        try {
+            return Integer.parseInt( token );
+        }
+        catch ( NumberFormatException nfe ) {
+            throw new PerpParseException( "Number too large", token, nfe );
+        }
+    }
+
+    /**
+     * @param token a program token
+     * @return true iff the token is all ASCII digits
+     */
+    static boolean isNumber( String token ) {
+        if ( token.isEmpty() ) {
+            return false;
+        }
+        for ( int i = 0; i < token.length(); ++i ) {
+            char c = token.charAt( i );
+            if ( c < '0' || c > '9' ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param token a program token
+     * @return true iff the token starts with an ASCII letter
+     */
+    static boolean isIdentifier( String token ) {
+        if ( token.isEmpty() ) {
+            return false;
+        }
+        char first = token.charAt( 0 );
+        return ( first >= 'a' && first <= 'z' ) ||
+               ( first >= 'A' && first <= 'Z' );
+    }
+}
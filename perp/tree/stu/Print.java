@@ -5,7 +5,6 @@ import perp.machine.stu.Machine;
 import perp.tree.ActionNode;
 import perp.tree.ExpressionNode;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -27,40 +26,54 @@ public class Print implements ActionNode {
     }
 
     /**
-     * Show this statement on standard output as the word "Print" followed by the infix form of the expression.
+     * @return the expression to be evaluated and printed
      */
-    @Override
-    public void infixDisplay() {
-        System.out.print("Print ");
-        printee.infixDisplay();
-        System.out.println();
+    public ExpressionNode getPrintee() {
+        return printee;
+    }
 
+    /**
+     * Write this statement as the word "Print" followed by the infix form of the expression,
+     * on a line of its own.
+     *
+     * @param out where the text goes
+     */
+    @Override
+    public void infixDisplay(Appendable out) {
+        TreeWalker.append(out, "Print ");
+        printee.infixDisplay(out);
+        TreeWalker.append(out, "\n");
+    }
 
+    /**
+     * @return the length of this statement's line, newline included
+     */
+    @Override
+    public int infixLength() {
+        return "Print ".length() + printee.infixLength() + 1;
     }
 
     /**
      * This method returns the code emitted by the printee node that pushes the value of the printee
      * expression onto the stack, followed by a PRINT instruction
      *
-     * @return a list of instructions ending in the ones that compute the value to be printed, and print it.
+     * @param code where to add instructions ending in the ones that compute the value to be printed, and print it.
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> data = new ArrayList<>();
-        data.addAll(printee.emit());
-        data.add(new Machine.Print());
-        return data;
+    public void emit(List<Machine.Instruction> code) {
+        TreeWalker.emit(printee, code);
+        code.add(new Machine.Print());
     }
 
     /**
-     * Evaluate the expression and display the result on the console.
+     * Evaluate the expression and display the result on the table's output.
      * Precede it with three equal signs so it stands out a little.
      *
      * @param symTab the table where variable values are stored
      */
     @Override
     public void execute(SymbolTable symTab) {
-        System.out.println("=== " + printee.evaluate(symTab));
+        symTab.output().println("=== ", printee.evaluate(symTab));
 
     }
 }
@@ -0,0 +1,354 @@
+package perp.tree.stu;
+
+import perp.machine.RegisterProgram;
+import perp.machine.stu.IntStack;
+import perp.machine.stu.SlotTable;
+import perp.tree.ActionNode;
+import perp.tree.ExpressionNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generation of {@link RegisterProgram} code from a Perp parse tree.
+ *
+ * Each variable gets its own register, so a variable operand needs no
+ * instruction. Partial results go in temporary registers, allocated
+ * like a stack: an operation frees its operands' temporaries before
+ * taking one for its result, so an expression needs no more temporaries
+ * than it is deep. The operation at the top of an assignment writes
+ * straight into the variable's register.
+ *
+ * Operands are computed left to right, as the other engines do, so the
+ * same error is reported first.
+ *
+ * Like {@link TreeWalker}, the compiler keeps its place in an expression
+ * on stacks in the heap, so an expression may be nested as deeply as
+ * memory allows. The register machine runs the result without
+ * recursion, too.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public final class RegisterCompiler {
+
+    private final SlotTable slots = new SlotTable();
+    private int variableCount;
+    private int temporaries = 0;
+    private int maxTemporaries = 0;
+    private int[] code = new int[ 64 ];
+    private int size = 0;
+    private boolean[] defined;
+    private final List< Integer > order = new ArrayList<>();
+
+    /** Only {@link #compile(ActionNode)} makes these. */
+    private RegisterCompiler() {}
+
+    /**
+     * Generate register code for a program.
+     * @param program the root of the program's parse tree
+     * @return the register program
+     * @throws IllegalArgumentException if the program has an incomplete
+     *         expression
+     */
+    public static RegisterProgram compile( ActionNode program ) {
+        RegisterCompiler compiler = new RegisterCompiler();
+        compiler.declare( program );
+        compiler.variableCount = compiler.slots.size();
+        compiler.defined = new boolean[ compiler.variableCount ];
+        compiler.statement( program );
+
+        String[] names = new String[ compiler.variableCount ];
+        for ( int slot = 0; slot < names.length; ++slot ) {
+            names[ slot ] = compiler.slots.nameOf( slot );
+        }
+        int[] definitionOrder = new int[ compiler.order.size() ];
+        for ( int i = 0; i < definitionOrder.length; ++i ) {
+            definitionOrder[ i ] = compiler.order.get( i );
+        }
+        return new RegisterProgram( Arrays.copyOf( compiler.code,
+                                                   compiler.size ),
+                                    names,
+                                    compiler.variableCount +
+                                    compiler.maxTemporaries,
+                                    definitionOrder );
+    }
+
+    /**
+     * Give a register to every variable named in a statement, so that
+     * the temporaries can be numbered after them.
+     * @param action the statement
+     */
+    private void declare( ActionNode action ) {
+        if ( action instanceof ActionSequence ) {
+            for ( ActionNode child: ( (ActionSequence)action ).actions ) {
+                declare( child );
+            }
+        }
+        else if ( action instanceof Assignment ) {
+            Assignment assignment = (Assignment)action;
+            declare( assignment.getRhs() );
+            slots.slotOf( assignment.getIdent() );
+        }
+        else if ( action instanceof Print ) {
+            declare( ( (Print)action ).getPrintee() );
+        }
+    }
+
+    /**
+     * Give a register to every variable named in an expression, in the
+     * order they are written.
+     * @param expr the expression
+     */
+    private void declare( ExpressionNode expr ) {
+        List< ExpressionNode > work = new ArrayList<>();
+        work.add( expr );
+        while ( !work.isEmpty() ) {
+            ExpressionNode node = work.remove( work.size() - 1 );
+            if ( node instanceof Variable ) {
+                slots.slotOf( ( (Variable)node ).getName() );
+            }
+            else if ( node instanceof BinaryOperation ) {
+                work.add( ( (BinaryOperation)node ).getRightChild() );
+                work.add( ( (BinaryOperation)node ).getLeftChild() );
+            }
+            else if ( node instanceof UnaryOperation ) {
+                work.add( ( (UnaryOperation)node ).getExpr() );
+            }
+        }
+    }
+
+    /**
+     * Generate code for a statement or a sequence of them.
+     * @param action the statement
+     */
+    private void statement( ActionNode action ) {
+        if ( action instanceof ActionSequence ) {
+            for ( ActionNode child: ( (ActionSequence)action ).actions ) {
+                statement( child );
+            }
+        }
+        else if ( action instanceof Assignment ) {
+            Assignment assignment = (Assignment)action;
+            int target = slots.slotOf( assignment.getIdent() );
+            into( assignment.getRhs(), target );
+            if ( !defined[ target ] ) {
+                defined[ target ] = true;
+                order.add( target );
+            }
+        }
+        else if ( action instanceof Print ) {
+            int value = operand( ( (Print)action ).getPrintee() );
+            emit( RegisterProgram.PRINT, value, 0, 0 );
+            release( value );
+        }
+        else {
+            throw new IllegalArgumentException(
+                    "Cannot compile statement " + action );
+        }
+    }
+
+    /**
+     * A step of code generation still to be done: an expression to
+     * compute, or an operator waiting for its operands' registers.
+     */
+    private static final class Step {
+        /** what to do */
+        enum Kind {
+            /** compute node into register */
+            INTO,
+            /** compute node wherever it is cheapest; see operand */
+            OPERAND,
+            /** node's operands are done; apply its operator into register */
+            APPLY,
+            /** register, a new temporary, now holds an operand */
+            TEMPORARY
+        }
+
+        final Kind kind;
+        final ExpressionNode node;
+        final int register;
+
+        Step( Kind kind, ExpressionNode node, int register ) {
+            this.kind = kind;
+            this.node = node;
+            this.register = register;
+        }
+    }
+
+    /**
+     * Generate code that leaves an expression's value in a given register.
+     * An operand that is a variable is read from the variable's own
+     * register; any other operand gets a new temporary. The operands'
+     * registers wait on a stack until their operator is applied.
+     * @param expr the expression
+     * @param target the register
+     */
+    private void into( ExpressionNode expr, int target ) {
+        List< Step > work = new ArrayList<>();
+        IntStack operands = new IntStack();
+        work.add( new Step( Step.Kind.INTO, expr, target ) );
+        while ( !work.isEmpty() ) {
+            Step step = work.remove( work.size() - 1 );
+            switch ( step.kind ) {
+                case INTO:
+                    expand( step.node, step.register, work );
+                    break;
+                case OPERAND:
+                    if ( step.node instanceof Variable ) {
+                        operands.push( variable( (Variable)step.node ) );
+                    }
+                    else {
+                        int temporary = variableCount + temporaries;
+                        maxTemporaries = Math.max( maxTemporaries,
+                                                   temporaries + 1 );
+                        // The expression's first operand may be left in
+                        // this register too: operands are all read
+                        // before the result is written.
+                        work.add( new Step( Step.Kind.TEMPORARY, null,
+                                            temporary ) );
+                        work.add( new Step( Step.Kind.INTO, step.node,
+                                            temporary ) );
+                    }
+                    break;
+                case TEMPORARY:
+                    ++temporaries;
+                    operands.push( step.register );
+                    break;
+                default:
+                    apply( step.node, step.register, operands );
+            }
+        }
+    }
+
+    /**
+     * Generate code for one node of an expression, leaving the code for
+     * its operands, if it has any, to be generated first.
+     * @param expr the node
+     * @param target the register its value goes in
+     * @param work the steps still to be done
+     */
+    private void expand( ExpressionNode expr, int target, List< Step > work ) {
+        if ( expr instanceof Constant ) {
+            emit( RegisterProgram.LOADI, target,
+                  ( (Constant)expr ).getValue(), 0 );
+        }
+        else if ( expr instanceof Variable ) {
+            int source = variable( (Variable)expr );
+            if ( source != target ) {
+                emit( RegisterProgram.MOVE, target, source, 0 );
+            }
+        }
+        else if ( expr instanceof BinaryOperation ) {
+            BinaryOperation op = (BinaryOperation)expr;
+            work.add( new Step( Step.Kind.APPLY, op, target ) );
+            work.add( new Step( Step.Kind.OPERAND, op.getRightChild(), 0 ) );
+            work.add( new Step( Step.Kind.OPERAND, op.getLeftChild(), 0 ) );
+        }
+        else if ( expr instanceof UnaryOperation ) {
+            UnaryOperation op = (UnaryOperation)expr;
+            work.add( new Step( Step.Kind.APPLY, op, target ) );
+            work.add( new Step( Step.Kind.OPERAND, op.getExpr(), 0 ) );
+        }
+        else {
+            throw new IllegalArgumentException( "Incomplete expression" );
+        }
+    }
+
+    /**
+     * Generate the instruction of an operator whose operands are done.
+     * @param expr a BinaryOperation or UnaryOperation
+     * @param target the register its value goes in
+     * @param operands the registers holding the operands' values, the
+     *                 last operand on top
+     */
+    private void apply( ExpressionNode expr, int target, IntStack operands ) {
+        if ( expr instanceof BinaryOperation ) {
+            int right = operands.pop();
+            int left = operands.pop();
+            release( right );
+            release( left );
+            emit( opcode( ( (BinaryOperation)expr ).getOp() ),
+                  target, left, right );
+        }
+        else {
+            int operand = operands.pop();
+            release( operand );
+            emit( ( (UnaryOperation)expr ).getOp() ==
+                  UnaryOperation.Operator.NEGATE ?
+                  RegisterProgram.NEG : RegisterProgram.SQRT,
+                  target, operand, 0 );
+        }
+    }
+
+    /**
+     * Generate code for an expression wherever it is cheapest.
+     * @param expr the expression
+     * @return the register holding its value: the variable's own
+     *         register for a variable, otherwise a new temporary
+     */
+    private int operand( ExpressionNode expr ) {
+        if ( expr instanceof Variable ) {
+            return variable( (Variable)expr );
+        }
+        int temporary = variableCount + temporaries;
+        maxTemporaries = Math.max( maxTemporaries, temporaries + 1 );
+        into( expr, temporary );
+        ++temporaries;
+        return temporary;
+    }
+
+    /**
+     * Find a variable's register, reporting the variable if it has not
+     * been assigned yet.
+     * @param var the variable
+     * @return the variable's own register
+     */
+    private int variable( Variable var ) {
+        int register = slots.slotOf( var.getName() );
+        if ( !defined[ register ] ) {
+            emit( RegisterProgram.UNDEF, register, 0, 0 );
+        }
+        return register;
+    }
+
+    /**
+     * Give back a register if it is the most recent temporary.
+     * @param register the register an operand was left in
+     */
+    private void release( int register ) {
+        if ( register >= variableCount ) {
+            --temporaries;
+        }
+    }
+
+    /**
+     * @param operator a binary operator
+     * @return the register instruction that performs it
+     */
+    private static int opcode( BinaryOperation.Operator operator ) {
+        switch ( operator ) {
+            case PLUS: return RegisterProgram.ADD;
+            case MINUS: return RegisterProgram.SUB;
+            case TIMES: return RegisterProgram.MUL;
+            default: return RegisterProgram.DIV;
+        }
+    }
+
+    /**
+     * Add an instruction to the code.
+     * @param opcode the instruction's opcode
+     * @param a the first operand
+     * @param b the second operand, or 0
+     * @param c the third operand, or 0
+     */
+    private void emit( int opcode, int a, int b, int c ) {
+        if ( size + RegisterProgram.WIDTH > code.length ) {
+            code = Arrays.copyOf( code, code.length * 2 );
+        }
+        code[ size++ ] = opcode;
+        code[ size++ ] = a;
+        code[ size++ ] = b;
+        code[ size++ ] = c;
+    }
+}
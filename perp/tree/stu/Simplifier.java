@@ -0,0 +1,155 @@
+package perp.tree.stu;
+
+import perp.tree.ActionNode;
+import perp.tree.ExpressionNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pass over a parse tree that folds constant calculations and removes
+ * operations that do not change their operand. The result is a new tree;
+ * the one given is not changed. The rewrites are:
+ * <pre>
+ *     constant op constant      the computed constant
+ *     x * 1, 1 * x              x
+ *     x + 0, 0 + x, x - 0       x
+ *     x // 1                    x
+ *     _ constant, # constant    the computed constant
+ *     _ _ x                     x
+ * </pre>
+ * A division by a constant zero, or the square root of a negative
+ * constant, is left in the tree so that it is reported when it is
+ * evaluated, exactly as it would be without this pass.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class Simplifier {
+
+    /** Do not instantiate this class. */
+    private Simplifier() {}
+
+    /**
+     * Simplify every expression in a statement.
+     * @param action the root of the statement's tree
+     * @return the simplified statement
+     */
+    public static ActionNode simplify(ActionNode action) {
+        if (action instanceof ActionSequence) {
+            ActionSequence result = new ActionSequence();
+            for (ActionNode child : ((ActionSequence) action).actions) {
+                result.addAction(simplify(child));
+            }
+            return result;
+        }
+        else if (action instanceof Assignment) {
+            Assignment assignment = (Assignment) action;
+            return new Assignment(assignment.getIdent(), simplify(assignment.getRhs()));
+        }
+        else if (action instanceof Print) {
+            return new Print(simplify(((Print) action).getPrintee()));
+        }
+        return action;
+    }
+
+    /**
+     * Simplify an expression, from the leaves up. The tree is walked with
+     * stacks of its own rather than by recursion, so that an expression
+     * may be nested as deeply as memory allows: the work stack holds
+     * nodes to simplify and the operators waiting for them, and the
+     * result stack holds the operands simplified so far.
+     * @param expr the root of the expression's tree; may be null
+     * @return the simplified expression
+     */
+    public static ExpressionNode simplify(ExpressionNode expr) {
+        List<Object> work = new ArrayList<>();
+        List<ExpressionNode> done = new ArrayList<>();
+        work.add(expr);
+        while (!work.isEmpty()) {
+            Object item = work.remove(work.size() - 1);
+            if (item instanceof BinaryOperation) {
+                BinaryOperation op = (BinaryOperation) item;
+                work.add(op.getOp());
+                work.add(op.getRightChild());
+                work.add(op.getLeftChild());
+            }
+            else if (item instanceof UnaryOperation) {
+                UnaryOperation op = (UnaryOperation) item;
+                work.add(op.getOp());
+                work.add(op.getExpr());
+            }
+            else if (item instanceof BinaryOperation.Operator) {
+                ExpressionNode right = done.remove(done.size() - 1);
+                ExpressionNode left = done.remove(done.size() - 1);
+                done.add(simplifyBinary((BinaryOperation.Operator) item, left, right));
+            }
+            else if (item instanceof UnaryOperation.Operator) {
+                ExpressionNode operand = done.remove(done.size() - 1);
+                done.add(simplifyUnary((UnaryOperation.Operator) item, operand));
+            }
+            else {
+                done.add((ExpressionNode) item);
+            }
+        }
+        return done.get(0);
+    }
+
+    /**
+     * @param operator a BinaryOperation operator
+     * @param left the simplified left operand
+     * @param right the simplified right operand
+     * @return the simplest equivalent of the operation
+     */
+    private static ExpressionNode simplifyBinary(BinaryOperation.Operator operator,
+                                                 ExpressionNode left, ExpressionNode right) {
+        if (left instanceof Constant && right instanceof Constant) {
+            int b = ((Constant) right).getValue();
+            if (operator != BinaryOperation.Operator.DIVIDE || b != 0) {
+                return new Constant(operator.apply(((Constant) left).getValue(), b));
+            }
+        }
+        else if (isConstant(right, 0) &&
+                 (operator == BinaryOperation.Operator.PLUS || operator == BinaryOperation.Operator.MINUS)) {
+            return left;
+        }
+        else if (isConstant(left, 0) && operator == BinaryOperation.Operator.PLUS) {
+            return right;
+        }
+        else if (isConstant(right, 1) &&
+                 (operator == BinaryOperation.Operator.TIMES || operator == BinaryOperation.Operator.DIVIDE)) {
+            return left;
+        }
+        else if (isConstant(left, 1) && operator == BinaryOperation.Operator.TIMES) {
+            return right;
+        }
+        return new BinaryOperation(operator, left, right);
+    }
+
+    /**
+     * @param operator a UnaryOperation operator
+     * @param operand the simplified operand
+     * @return the simplest equivalent of the operation
+     */
+    private static ExpressionNode simplifyUnary(UnaryOperation.Operator operator, ExpressionNode operand) {
+        if (operand instanceof Constant) {
+            int c = ((Constant) operand).getValue();
+            if (operator == UnaryOperation.Operator.NEGATE || c >= 0) {
+                return new Constant(operator.apply(c));
+            }
+        }
+        else if (operator == UnaryOperation.Operator.NEGATE && operand instanceof UnaryOperation &&
+                 ((UnaryOperation) operand).getOp() == UnaryOperation.Operator.NEGATE) {
+            return ((UnaryOperation) operand).getExpr();
+        }
+        return new UnaryOperation(operator, operand);
+    }
+
+    /**
+     * @param expr an expression
+     * @param value an integer
+     * @return true iff expr is a Constant holding value
+     */
+    private static boolean isConstant(ExpressionNode expr, int value) {
+        return expr instanceof Constant && ((Constant) expr).getValue() == value;
+    }
+}
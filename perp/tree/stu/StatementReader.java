@@ -0,0 +1,123 @@
+package perp.tree.stu;
+
+import perp.tree.ActionNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads Perp source text one statement at a time. Tokens are separated
+ * by white space. Only the tokens of the statement being parsed are
+ * held in memory, so a program of any length can be run through it
+ * as long as each single statement fits.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+public class StatementReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader source;
+    private final char[] buffer = new char[ BUFFER_SIZE ];
+    private int bufferPos = 0;
+    private int bufferEnd = 0;
+
+    /** the first token of the next statement, already read */
+    private String lookahead = null;
+
+    /** the identifiers read so far, so every statement uses the same ones */
+    private final Map< String, String > identifiers = new HashMap<>();
+
+    /**
+     * Prepare to read statements from a character stream.
+     * @param source where the program text comes from
+     */
+    public StatementReader( Reader source ) {
+        this.source = source;
+    }
+
+    /**
+     * Prepare to read statements from a channel of UTF-8 text.
+     * @param source where the program text comes from
+     */
+    public StatementReader( ReadableByteChannel source ) {
+        this( Channels.newReader( source, StandardCharsets.UTF_8.newDecoder(),
+                                  BUFFER_SIZE ) );
+    }
+
+    /**
+     * Read and parse the next statement.
+     * @return the statement's parse tree, or null at the end of the input
+     * @throws IOException if the source cannot be read
+     */
+    public ActionNode next() throws IOException {
+        String first = lookahead != null ? lookahead : nextToken();
+        lookahead = null;
+        if ( first == null ) {
+            return null;
+        }
+        List< String > statement = new ArrayList<>();
+        statement.add( first );
+        String token = nextToken();
+        while ( token != null && !Parser.isStatementStart( token ) ) {
+            statement.add( token );
+            token = nextToken();
+        }
+        lookahead = token;
+        return new Parser( statement, identifiers ).parseNext();
+    }
+
+    /**
+     * Read the next white-space-separated token.
+     * @return the token, or null at the end of the input
+     * @throws IOException if the source cannot be read
+     */
+    private String nextToken() throws IOException {
+        int c = read();
+        while ( c >= 0 && Character.isWhitespace( c ) ) {
+            c = read();
+        }
+        if ( c < 0 ) {
+            return null;
+        }
+        StringBuilder token = new StringBuilder();
+        while ( c >= 0 && !Character.isWhitespace( c ) ) {
+            token.append( (char)c );
+            c = read();
+        }
+        return token.toString();
+    }
+
+    /**
+     * @return the next character of the source, or -1 at its end
+     * @throws IOException if the source cannot be read
+     */
+    private int read() throws IOException {
+        if ( bufferPos == bufferEnd ) {
+            int count = source.read( buffer, 0, buffer.length );
+            if ( count <= 0 ) {
+                return -1;
+            }
+            bufferPos = 0;
+            bufferEnd = count;
+        }
+        return buffer[ bufferPos++ ];
+    }
+
+    /**
+     * Close the source.
+     * @throws IOException if the source cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,259 @@
+package perp.tree.stu;
+
+import perp.OutputSink;
+import perp.PerpLimitException;
+import perp.SymbolTable;
+import perp.machine.stu.IntStack;
+import perp.machine.stu.Machine;
+import perp.tree.ExpressionNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks of expression trees that keep their place on a stack in the
+ * heap instead of on the thread's call stack, so that an expression
+ * may be nested as deeply as memory allows. Each walk visits the nodes
+ * in the order that {@link BinaryOperation} and {@link UnaryOperation}
+ * define, left operand first, just as recursive calls would, and so
+ * writes the same text, emits the same instructions, and fails at the
+ * same point.
+ * Nodes of any other kind are leaves; their own methods are called.
+ *
+ * A walk's stack holds both nodes still to be visited and the operators
+ * or text waiting for them to be done. The operands of an operator are
+ * pushed after it, right before left, so that the left one comes off
+ * first.
+ *
+ * @author Phuvit Kittisapkajon
+ */
+class TreeWalker {
+
+    /**
+     * how many operators deep an expression may be for its nodes to
+     * evaluate it by calling each other; deeper ones are evaluated here
+     */
+    static final int RECURSION_DEPTH = 1_000;
+
+    /** Do not instantiate this class. */
+    private TreeWalker() {}
+
+    /**
+     * Compute the value of an expression. Subexpressions no more than
+     * {@link #RECURSION_DEPTH} deep are left to evaluate themselves.
+     * @param root the expression
+     * @param symTab where variable values are fetched from
+     * @return the value
+     * @throws perp.PerpException if an operation cannot be done
+     * @see ExpressionNode#evaluate(SymbolTable)
+     */
+    static int evaluate( ExpressionNode root, SymbolTable symTab ) {
+        List< Object > work = new ArrayList<>();
+        IntStack values = new IntStack();
+        work.add( root );
+        while ( !work.isEmpty() ) {
+            Object item = work.remove( work.size() - 1 );
+            if ( item instanceof ExpressionNode &&
+                 depth( (ExpressionNode)item ) <= RECURSION_DEPTH ) {
+                // Shallow enough for the node's own evaluate, which is
+                // much faster than walking it here.
+                values.push( ( (ExpressionNode)item ).evaluate( symTab ) );
+            }
+            else if ( item instanceof BinaryOperation ) {
+                BinaryOperation op = (BinaryOperation)item;
+                work.add( op.getOp() );
+                work.add( op.getRightChild() );
+                work.add( op.getLeftChild() );
+            }
+            else if ( item instanceof UnaryOperation ) {
+                UnaryOperation op = (UnaryOperation)item;
+                work.add( op.getOp() );
+                work.add( op.getExpr() );
+            }
+            else if ( item instanceof BinaryOperation.Operator ) {
+                int right = values.pop();
+                int left = values.pop();
+                values.push( ( (BinaryOperation.Operator)item )
+                                     .apply( left, right ) );
+            }
+            else if ( item instanceof UnaryOperation.Operator ) {
+                values.push( ( (UnaryOperation.Operator)item )
+                                     .apply( values.pop() ) );
+            }
+            else {
+                values.push( ( (ExpressionNode)item ).evaluate( symTab ) );
+            }
+        }
+        return values.pop();
+    }
+
+    /**
+     * Add the instructions that compute an expression's value to a list.
+     * @param root the expression
+     * @param code where the instructions go
+     * @see perp.tree.PerpNode#emit(List)
+     */
+    static void emit( ExpressionNode root, List< Machine.Instruction > code ) {
+        List< Object > work = new ArrayList<>();
+        work.add( root );
+        while ( !work.isEmpty() ) {
+            Object item = work.remove( work.size() - 1 );
+            if ( item instanceof BinaryOperation ) {
+                BinaryOperation op = (BinaryOperation)item;
+                work.add( op.getOp() );
+                work.add( op.getRightChild() );
+                work.add( op.getLeftChild() );
+            }
+            else if ( item instanceof UnaryOperation ) {
+                UnaryOperation op = (UnaryOperation)item;
+                work.add( op.getOp() );
+                work.add( op.getExpr() );
+            }
+            else if ( item instanceof BinaryOperation.Operator ) {
+                code.add( ( (BinaryOperation.Operator)item ).instruction() );
+            }
+            else if ( item instanceof UnaryOperation.Operator ) {
+                code.add( ( (UnaryOperation.Operator)item ).instruction() );
+            }
+            else {
+                ( (ExpressionNode)item ).emit( code );
+            }
+        }
+    }
+
+    /**
+     * Write an expression in infix form.
+     * @param root the expression
+     * @param out where the text goes
+     * @throws java.io.UncheckedIOException if out cannot be written
+     * @see perp.tree.PerpNode#infixDisplay(Appendable)
+     */
+    static void infixDisplay( ExpressionNode root, Appendable out ) {
+        List< Object > work = new ArrayList<>();
+        work.add( root );
+        while ( !work.isEmpty() ) {
+            Object item = work.remove( work.size() - 1 );
+            if ( item instanceof BinaryOperation ) {
+                BinaryOperation op = (BinaryOperation)item;
+                append( out, "( " );
+                work.add( " )" );
+                work.add( op.getRightChild() );
+                work.add( " " + op.getOperator() + " " );
+                work.add( op.getLeftChild() );
+            }
+            else if ( item instanceof UnaryOperation ) {
+                UnaryOperation op = (UnaryOperation)item;
+                append( out, op.getOperator() );
+                work.add( op.getExpr() );
+            }
+            else if ( item instanceof String ) {
+                append( out, (String)item );
+            }
+            else {
+                ( (ExpressionNode)item ).infixDisplay( out );
+            }
+        }
+    }
+
+    /**
+     * Count the characters of an expression in infix form.
+     * @param root the expression
+     * @return how many characters {@link #infixDisplay} writes for it
+     * @see perp.tree.PerpNode#infixLength()
+     */
+    static int infixLength( ExpressionNode root ) {
+        List< ExpressionNode > work = new ArrayList<>();
+        int length = 0;
+        work.add( root );
+        while ( !work.isEmpty() ) {
+            ExpressionNode node = work.remove( work.size() - 1 );
+            if ( node instanceof BinaryOperation ) {
+                BinaryOperation op = (BinaryOperation)node;
+                // "( " left " op " right " )"
+                length += op.getOperator().length() + 6;
+                work.add( op.getRightChild() );
+                work.add( op.getLeftChild() );
+            }
+            else if ( node instanceof UnaryOperation ) {
+                UnaryOperation op = (UnaryOperation)node;
+                length += op.getOperator().length();
+                work.add( op.getExpr() );
+            }
+            else {
+                length += node.infixLength();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Measure how deeply an expression is nested. Each operation node
+     * works this out from its operands when it is built, so this takes
+     * constant time.
+     * @param root the expression, or null
+     * @return how many operators are on the longest path from the root
+     *         down to a leaf; 0 for a constant, a variable or null
+     */
+    static int depth( ExpressionNode root ) {
+        if ( root instanceof BinaryOperation ) {
+            return ( (BinaryOperation)root ).depth();
+        }
+        else if ( root instanceof UnaryOperation ) {
+            return ( (UnaryOperation)root ).depth();
+        }
+        return 0;
+    }
+
+    /**
+     * Make sure an expression is no deeper than an engine allows.
+     * @param root the expression
+     * @param limit the deepest nesting the engine can handle
+     * @param engine what the engine is called in the error message
+     * @throws PerpLimitException if the expression is nested deeper
+     * @see #depth(ExpressionNode)
+     */
+    static void checkDepth( ExpressionNode root, int limit, String engine ) {
+        int depth = depth( root );
+        if ( depth > limit ) {
+            throw new PerpLimitException(
+                    "Expression nested too deeply for the " + engine,
+                    depth + " levels, at most " + limit );
+        }
+    }
+
+    /**
+     * Write some text.
+     * @param out where the text goes
+     * @param text the text
+     * @throws UncheckedIOException if out cannot be written
+     */
+    static void append( Appendable out, CharSequence text ) {
+        try {
+            out.append( text );
+        }
+        catch ( IOException ioe ) {
+            throw new UncheckedIOException( ioe );
+        }
+    }
+
+    /**
+     * Write an integer in decimal. Buffers and sinks that can format
+     * an integer themselves are left to do so, which makes no String.
+     * @param out where the text goes
+     * @param value the integer
+     * @throws UncheckedIOException if out cannot be written
+     */
+    static void append( Appendable out, int value ) {
+        if ( out instanceof StringBuilder ) {
+            ( (StringBuilder)out ).append( value );
+        }
+        else if ( out instanceof OutputSink ) {
+            ( (OutputSink)out ).print( value );
+        }
+        else {
+            append( out, Integer.toString( value ) );
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package perp.tree.stu;
 
-import perp.Errors;
+import perp.PerpArithmeticException;
 import perp.SymbolTable;
 import perp.machine.stu.Machine;
 import perp.tree.ExpressionNode;
@@ -16,9 +16,11 @@ import java.util.List;
  */
 
 public class UnaryOperation implements ExpressionNode{
-    private String operator;
+    private final Operator operator;
 
-    private ExpressionNode expr;
+    private final ExpressionNode expr;
+    /** how many operators deep this expression is, this one included */
+    private final int depth;
 
     public static final String NEG = "_";
     //arithmetic negation operator
@@ -29,6 +31,65 @@ public class UnaryOperation implements ExpressionNode{
     public static final List<String> OPERATORS = new ArrayList<>(Arrays.asList(NEG, SQRT));
     //Container of all legal unary operators, for use by parsers
 
+    /**
+     * The unary operators, resolved from their symbols once, when a node is built,
+     * so that evaluation never has to compare strings.
+     */
+    public enum Operator {
+        NEGATE(NEG), ROOT(SQRT);
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @return the string rep. of the operation
+         */
+        public String symbol() {
+            return symbol;
+        }
+
+        /**
+         * Find the operator for a symbol.
+         *
+         * @param symbol - the string rep. of the operation
+         * @return the operator
+         * @throws IllegalArgumentException if symbol is not in OPERATORS
+         */
+        public static Operator of(String symbol) {
+            switch (symbol) {
+                case NEG: return NEGATE;
+                case SQRT: return ROOT;
+            }
+            throw new IllegalArgumentException("Not a unary operator: " + symbol);
+        }
+
+        /**
+         * Apply this operator. A negative square root operand is reported with a PerpArithmeticException.
+         *
+         * @param operand - the operand's value
+         * @return the result of the computation
+         */
+        public final int apply(int operand) {
+            if (this == NEGATE) {
+                return -operand;
+            }
+            if (operand < 0) {
+                throw new PerpArithmeticException("Can't do Square Root on a Negative Integer", operand);
+            }
+            return (int) (Math.sqrt(operand));
+        }
+
+        /**
+         * @return a new Machine instruction that performs this operation
+         */
+        public Machine.Instruction instruction() {
+            return this == NEGATE ? new Machine.Negate() : new Machine.SquareRoot();
+        }
+    }
+
     /**
      * Create a new UnaryOperation node.
      *
@@ -37,19 +98,67 @@ public class UnaryOperation implements ExpressionNode{
      * @pre-condition OPERATORS.contains( operator ), expr != null
      */
     public UnaryOperation(String operator, ExpressionNode expr){
+        this(Operator.of(operator), expr);
+    }
+
+    /**
+     * Create a new UnaryOperation node for an operator that is already resolved.
+     *
+     * @param operator - the operation
+     * @param expr - the operand
+     */
+    public UnaryOperation(Operator operator, ExpressionNode expr){
         this.operator = operator;
         this.expr = expr;
+        this.depth = 1 + TreeWalker.depth(expr);
     }
 
     /**
-     * Print, on standard output, the infixDisplay of the child nodes preceded by the operator
-     * and without an intervening blank.
+     * @return the string rep. of the operation
+     */
+    public String getOperator() {
+        return operator.symbol();
+    }
+
+    /**
+     * @return the operation
+     */
+    public Operator getOp() {
+        return operator;
+    }
+
+    /**
+     * @return the operand
+     */
+    public ExpressionNode getExpr() {
+        return expr;
+    }
+
+    /**
+     * @return how many operators deep this expression is, this one included
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * Write the infixDisplay of the child nodes preceded by the operator
+     * and without an intervening blank. The operand is walked with a stack of its own
+     * (see {@link TreeWalker}), so nesting is not limited by the call stack.
+     *
+     * @param out where the text goes
      */
     @Override
-    public void infixDisplay() {
-        System.out.print(operator);
-        expr.infixDisplay();
+    public void infixDisplay(Appendable out) {
+        TreeWalker.infixDisplay(this, out);
+    }
 
+    /**
+     * @return the length of this operation's infix text, operand included
+     */
+    @Override
+    public int infixLength() {
+        return TreeWalker.infixLength(this);
     }
 
     /**
@@ -57,42 +166,26 @@ public class UnaryOperation implements ExpressionNode{
      * The operator itself is realized by an instruction that pops a value off the stack,
      * applies the operator, and pushes the answer.
      *
-     * @return a list containing instructions for the expression and the instruction to perform the operation
+     * @param code where to add instructions for the expression and the instruction to perform the operation
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> data = new ArrayList<>();
-        data.addAll(expr.emit());
-        switch(operator){
-            case NEG:
-                data.add(new Machine.Negate());
-                break;
-            case SQRT:
-                data.add(new Machine.SquareRoot());
-                break;
-        }
-        return data;
+    public void emit(List<Machine.Instruction> code) {
+        TreeWalker.emit(this, code);
     }
 
     /**
      * Compute the result of evaluating the expression and applying the operator to it.
+     * An expression that is nested too deeply to be evaluated recursively is handed to
+     * {@link TreeWalker}, which keeps its place on a stack in the heap.
      *
      * @param symTab symbol table, if needed, to fetch variable values
      * @return the result of the computation
      */
     @Override
     public int evaluate(SymbolTable symTab) {
-        if (operator.equals(NEG)) {
-            return -expr.evaluate(symTab);
-        }
-        else if (operator.equals(SQRT)) {
-            int result = expr.evaluate(symTab);
-            if (expr.evaluate(symTab) < 0) {
-                Errors.error("Can't do Square Root on a Negative Integer", result);
-            } else {
-                return (int) (Math.sqrt(result));
-            }
+        if (depth > TreeWalker.RECURSION_DEPTH) {
+            return TreeWalker.evaluate(this, symTab);
         }
-        return 0;
+        return operator.apply(expr.evaluate(symTab));
     }
 }
@@ -4,7 +4,6 @@ import perp.SymbolTable;
 import perp.machine.stu.Machine;
 import perp.tree.ExpressionNode;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -26,23 +25,37 @@ public class Variable implements ExpressionNode {
     }
 
     /**
-     * Print on standard output the Variable's name.
+     * @return the name of this variable
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Write the Variable's name.
+     * @param out where the text goes
+     */
+    @Override
+    public void infixDisplay(Appendable out) {
+        TreeWalker.append(out, name);
+    }
+
+    /**
+     * @return the length of the Variable's name
      */
     @Override
-    public void infixDisplay() {
-        System.out.print(name);
+    public int infixLength() {
+        return name.length();
     }
 
     /**
      * Emit a LOAD instruction that pushes the Variable's value onto the stack.
      *
-     * @return a list containing a single LOAD instruction
+     * @param code where to add a single LOAD instruction
      */
     @Override
-    public List<Machine.Instruction> emit() {
-        ArrayList<Machine.Instruction> data = new ArrayList<>();
-        data.add(new Machine.Load(name));
-        return data;
+    public void emit(List<Machine.Instruction> code) {
+        code.add(new Machine.Load(name));
     }
 
     /**